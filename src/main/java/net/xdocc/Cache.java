@@ -5,6 +5,12 @@
  */
 package net.xdocc;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.Striped;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.Accessors;
@@ -13,13 +19,22 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
 
 /**
  *
@@ -27,11 +42,161 @@ import java.util.Map;
  */
 public class Cache {
     
+    /**
+     * the persistent store, every change is written through
+     */
     final private Map<String, CacheEntry> cache;
-    private int hits = 0;
+    /**
+     * the entries read or written recently, so that a lookup does not deserialize the entry again. The
+     * entries are never changed, a change replaces the entry and a lookup gets a copy.
+     */
+    final private com.google.common.cache.Cache<String, CacheEntry> memory;
+    /**
+     * the changes of the current build, they are written to the store with {@link #flush()}
+     */
+    final private Map<String, CacheEntry> pending = new ConcurrentHashMap<>();
+    private static final CacheEntry REMOVED = new CacheEntry();
+    final private LongAdder storeHits = new LongAdder();
+    final private LongAdder storeMisses = new LongAdder();
+    final private AtomicInteger hits = new AtomicInteger();
+    /**
+     * an entry is read and replaced with its changes under the lock of its key
+     */
+    final private Striped<Lock> locks = Striped.lock(64);
+    /**
+     * If true, a file with a different timestamp is still valid if its content did not change. This is
+     * slower for changed files, but keeps the cache valid after a checkout or a copy of the sources.
+     */
+    final private boolean fingerprints;
+    /**
+     * the fingerprints calculated by this process, so that a template is hashed once and not for every entry
+     */
+    final private Map<String, Fingerprint> fingerprintCache = new ConcurrentHashMap<>();
+    /**
+     * the fingerprint of the templates and the global navigation of the current build. Every entry depends
+     * on them, so we check them once per build instead of storing them in every entry.
+     */
+    private volatile String generation;
+    /**
+     * entries of an older build are replaced instead of extended
+     */
+    private volatile long build;
     
     public Cache(Map<String, CacheEntry> cache) {
+        this(cache, false);
+    }
+
+    public Cache(Map<String, CacheEntry> cache, boolean fingerprints) {
+        this(cache, fingerprints, 100_000);
+    }
+
+    /**
+     * @param cache The persistent store
+     * @param fingerprints True, if the content of the files is checked if the timestamp changed
+     * @param memoryWeight The size of the in-memory cache, an entry weighs one plus its items and paths plus
+     * one per KB of generated content kept with its items
+     */
+    public Cache(Map<String, CacheEntry> cache, boolean fingerprints, long memoryWeight) {
         this.cache = cache;
+        this.fingerprints = fingerprints;
+        this.memory = CacheBuilder.newBuilder()
+                .maximumWeight(memoryWeight)
+                .weigher((String key, CacheEntry c) -> c.weight())
+                .recordStats()
+                .build();
+    }
+
+    private CacheEntry get(String key) {
+        CacheEntry c = memory.getIfPresent(key);
+        if(c != null) {
+            return c;
+        }
+        c = pending.get(key);
+        if(c != null) {
+            return c == REMOVED ? null : c;
+        }
+        c = cache.get(key);
+        if(c == null) {
+            storeMisses.increment();
+            return null;
+        }
+        storeHits.increment();
+        memory.put(key, c);
+        return c;
+    }
+
+    private void put(String key, CacheEntry c) {
+        memory.put(key, c);
+        pending.put(key, c);
+    }
+
+    /**
+     * Writes the changes of this build to the store. An entry that was changed several times is written
+     * once. If the store is transactional, it needs to be committed afterwards.
+     *
+     * @return The number of written entries
+     */
+    public int flush() {
+        int counter = 0;
+        for(String key : new ArrayList<>(pending.keySet())) {
+            CacheEntry c = pending.remove(key);
+            if(c == REMOVED) {
+                cache.remove(key);
+            } else {
+                cache.put(key, c); //mapdb specific, values are immutable
+            }
+            counter++;
+        }
+        return counter;
+    }
+
+    /**
+     * Removes the entries of sources that do not exist anymore or that cannot be read, and removes duplicate
+     * generated files. The changes are written with the next {@link #flush()}.
+     *
+     * @param headers Reads an entry of the store, the item is not needed
+     * @return The number of removed entries
+     */
+    public int collectGarbage(Function<String, CacheEntry> headers) {
+        int removed = 0;
+        for(String key : new ArrayList<>(cache.keySet())) {
+            if(!Files.exists(Paths.get(key))) {
+                invalidate(key);
+                removed++;
+                continue;
+            }
+            CacheEntry c = headers.apply(key);
+            if(c == null || c.generation() == null) {
+                invalidate(key);
+                removed++;
+                continue;
+            }
+            List<String> unique = new ArrayList<>(new LinkedHashSet<>(c.generatedFiles()));
+            if(unique.size() != c.generatedFiles().size()) {
+                //the entry is written again, now with its item
+                CacheEntry full = memory.getIfPresent(key);
+                if(full == null) {
+                    full = cache.get(key);
+                }
+                if(full != null) {
+                    memory.invalidate(key);
+                    pending.put(key, full.copy(false).generatedFiles(unique));
+                }
+            }
+        }
+        LOG.debug("removed {} cache entries", removed);
+        return removed;
+    }
+
+    /**
+     * Discards the changes of this build, e.g. if the build failed. The store needs to be rolled back as
+     * well, if something was written to it.
+     */
+    public void rollback() {
+        for(String key : new ArrayList<>(pending.keySet())) {
+            memory.invalidate(key);
+            pending.remove(key);
+        }
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(Cache.class);
@@ -44,11 +209,18 @@ public class Cache {
         return isCached(xPath, null);
     }
 
-    private boolean isCached(CacheEntry c, Path generated) {
+    private boolean isCached(String key, CacheEntry c, Path generated) {
         if( c == null) {
             return false;
         }
 
+        if(generation == null || !generation.equals(c.generation())) {
+            LOG.debug("templates or navigation changed for {}", key);
+            return false;
+        }
+
+        Map<String, Long> touched = null;
+        Map<String, Fingerprint> touchedFingerprints = null;
         for(Map.Entry<String, Long> entry: c.sourceDirs.entrySet()) {
             try {
                 Path p = Paths.get(entry.getKey());
@@ -58,12 +230,21 @@ public class Cache {
                 }
                 //don't check directories for timestamp as they change if the content of the file changes
                 if(Files.isRegularFile(p)) {
-                    if (Files.getLastModifiedTime(p).toMillis() != entry.getValue()) {
-                        LOG.debug("time of file {} is {}, stored is {}", p, Files.getLastModifiedTime(p).toMillis(), entry.getValue());
-                        return false;
+                    long modified = Files.getLastModifiedTime(p).toMillis();
+                    if (modified != entry.getValue()) {
+                        final Fingerprint current = sameContent(c, p);
+                        if(current == null) {
+                            LOG.debug("time of file {} is {}, stored is {}", p, modified, entry.getValue());
+                            return false;
+                        }
+                        //same content, only the timestamp changed, store it so we do not hash again
+                        if(touched == null) {
+                            touched = new HashMap<>();
+                            touchedFingerprints = new HashMap<>();
+                        }
+                        touched.put(p.toString(), modified);
+                        touchedFingerprints.put(p.toString(), current);
                     }
-                } else {
-
                 }
 
             } catch (IOException e) {
@@ -85,32 +266,178 @@ public class Cache {
         if(!found && generated != null) {
             return false;
         }
+        if(touched != null) {
+            touch(key, c, touched, touchedFingerprints);
+        }
         return true;
     }
 
+    /**
+     * Replaces the entry with a copy with the new timestamps of the files with the same content
+     */
+    private void touch(String key, CacheEntry c, Map<String, Long> modified, Map<String, Fingerprint> fingerprints) {
+        final Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            //the entry was replaced in the meantime, the timestamps are checked again with the next lookup
+            if(get(key) != c) {
+                return;
+            }
+            final CacheEntry copy = c.copy(false);
+            copy.sourceDirs().putAll(modified);
+            copy.fingerprints().putAll(fingerprints);
+            put(key, copy);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The current fingerprint of the file if its content did not change, null otherwise
+     */
+    private Fingerprint sameContent(CacheEntry c, Path p) throws IOException {
+        if(!fingerprints || c.fingerprints() == null) {
+            return null;
+        }
+        Fingerprint stored = c.fingerprints().get(p.toString());
+        if(stored == null) {
+            return null;
+        }
+        Fingerprint current = fingerprint(p);
+        return stored.sameContent(current) ? current : null;
+    }
+
+    /**
+     * Calculates the fingerprint of a file. The hash is only calculated if size or timestamp differ from the
+     * last fingerprint of this file.
+     */
+    private Fingerprint fingerprint(Path p) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(p, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Fingerprint known = fingerprintCache.get(p.toString());
+        if(known != null && known.size() == size && known.modified() == modified) {
+            return known;
+        }
+        Fingerprint fingerprint = new Fingerprint()
+                .size(size)
+                .modified(modified)
+                .hash(MoreFiles.asByteSource(p).hash(Hashing.murmur3_128()).toString());
+        fingerprintCache.put(p.toString(), fingerprint);
+        return fingerprint;
+    }
+
+    /**
+     * Stores the timestamp of the source and if the fingerprints are enabled, the fingerprint of the file.
+     */
+    private void addSource(CacheEntry c, Path p) throws IOException {
+        if(fingerprints && Files.isRegularFile(p)) {
+            Fingerprint fingerprint = fingerprint(p);
+            c.sourceDirs().put(p.toString(), fingerprint.modified());
+            if(c.fingerprints() == null) {
+                c.fingerprints(new HashMap<>());
+            }
+            c.fingerprints().put(p.toString(), fingerprint);
+        } else {
+            c.sourceDirs().put(p.toString(), Files.getLastModifiedTime(p).toMillis());
+        }
+    }
+
     public boolean isCached(XPath xPath, Path generated) {
         String key = xPath.path();
-        CacheEntry c = cache.get(key);
-        return isCached(c, generated);
+        CacheEntry c = get(key);
+        return isCached(key, c, generated);
     }
 
+    /**
+     * @return A copy of the cached entry and its item, the caller may change it, or null if the entry is not
+     * valid anymore
+     */
     public CacheEntry getCached(Site site, XPath xPath, Path generated) {
         String key = xPath.path();
-        CacheEntry c = cache.get(key);
+        CacheEntry c = get(key);
 
-        if(!isCached(c,generated)) {
+        if(!isCached(key, c, generated)) {
             return null;
         }
 
-        if(c.xItem() !=null) {
-            c.xItem().init(site);
-        }
-        hits++;
-        return c;
+        hits.incrementAndGet();
+        return c.copy(true);
     }
     
+    /**
+     * @return The number of entries in the store, without the changes of this build
+     */
+    public int size() {
+        return cache.size();
+    }
+
     public int hits() {
-        return hits;
+        return hits.get();
+    }
+
+    /**
+     * @return The hit and miss rates of the in-memory cache and of the persistent store
+     */
+    public String stats() {
+        CacheStats stats = memory.stats();
+        long storeRequests = storeHits.sum() + storeMisses.sum();
+        return String.format("memory: %d hits, %d misses (%.1f%% hit rate), %d evictions; store: %d hits, %d misses (%.1f%% hit rate); valid: %d",
+                stats.hitCount(), stats.missCount(), stats.hitRate() * 100, stats.evictionCount(),
+                storeHits.sum(), storeMisses.sum(), storeRequests == 0 ? 100.0 : storeHits.sum() * 100.0 / storeRequests,
+                hits.get());
+    }
+
+    /**
+     * Fingerprints the templates and the targets of the global navigation. This needs to be called before
+     * a build, after the templates and the navigation have been loaded.
+     *
+     * @param site The site with the current templates and navigation
+     * @return This class
+     */
+    public Cache updateGeneration(Site site) {
+        TreeSet<String> sources = new TreeSet<>();
+        for(Path sourceFile : site.templates()) {
+            sources.add(sourceFile.toString());
+        }
+        for(Link link: site.globalNavigation().flat()) {
+            sources.add(link.getTarget().path());
+        }
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for(String source : sources) {
+            Path p = Paths.get(source);
+            hasher.putString(source, StandardCharsets.UTF_8);
+            try {
+                //as with the sources, the timestamps of directories are not relevant
+                if(!Files.exists(p)) {
+                    hasher.putByte((byte) 0);
+                } else if(!Files.isRegularFile(p)) {
+                    hasher.putByte((byte) 1);
+                } else if(fingerprints) {
+                    hasher.putString(fingerprint(p).hash(), StandardCharsets.UTF_8);
+                } else {
+                    hasher.putLong(Files.getLastModifiedTime(p).toMillis());
+                }
+            } catch (IOException e) {
+                LOG.error("cannot fingerprint", e);
+                //nothing can be cached with an unknown state
+                hasher.putLong(System.nanoTime());
+            }
+        }
+        generation = hasher.hash().toString();
+        build = System.nanoTime();
+        LOG.debug("generation of templates and navigation: {}", generation);
+        return this;
+    }
+
+    /**
+     * Removes the entry, so that the next compile run does not use the cached version
+     *
+     * @param path The path of the source
+     */
+    public void invalidate(String path) {
+        memory.invalidate(path);
+        pending.put(path, REMOVED);
     }
 
     public Cache setCached(Site site, XPath xPath, Path sourceFile, XItem item,  Path genFile) {
@@ -129,74 +456,63 @@ public class Cache {
         return setCached(site,xPath, sourceFiles, item, genFiles);
     }
 
+    /**
+     * Caches a copy of the item, the item can be changed afterwards without changing the cache
+     */
     public Cache setCached(Site site, XPath xPath, List<Path> sourceFiles, XItem item,  List<String> genFiles) {
         String key = xPath.path();
-        CacheEntry c = cache.get(key);
-
-        if(c == null) {
-            Map<String, Long> map = parentMap(site, Paths.get(xPath.path()));
-            c  = new CacheEntry().xItem(item).sourceDirs(map).generatedFiles(genFiles);
-            cache.put(key, c);
-        } else {
-            //sanity check
-            //if(item != null && !item.equals(c.xItem())) {
-            //    throw new RuntimeException("tried to cache different things! "+item+"//"+c.xItem());
-            //}
-            c.generatedFiles().addAll(genFiles);
-        }
+        //the sources are read before the entry is locked
+        final CacheEntry sources = new CacheEntry().sourceDirs(new HashMap<>());
         if(sourceFiles != null) {
                 for(Path sourceFile : sourceFiles) {
                     try {
-                        c.sourceDirs().put(sourceFile.toString(), Files.getLastModifiedTime(sourceFile).toMillis());
+                        addSource(sources, sourceFile);
                     } catch (IOException e) {
                         LOG.error("cannot cache", e);
                     }
                 }
         }
-        //put in all templates as sources
-        for(Path sourceFile : site.templates()) {
-            try {
-            	if(Files.exists(sourceFile)) {
-            		c.sourceDirs().put(sourceFile.toString(), Files.getLastModifiedTime(sourceFile).toMillis());
-            	}
-            } catch (IOException e) {
-                LOG.error("cannot cache", e);
+        final XItem copy = item == null ? null : item.copy();
+
+        final Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            CacheEntry c = get(key);
+            //an entry of an older build is replaced, so that a changed source is cached with its new item
+            if(c == null || c.build() != build) {
+                c  = new CacheEntry().build(build).xItem(copy).sourceDirs(new HashMap<>()).generatedFiles(new ArrayList<>(genFiles));
+                for(Path p:Utils.listPathsSrc(site, Paths.get(xPath.path()))) {
+                    try {
+                        addSource(c, p);
+                    } catch (IOException ex) {
+                        LOG.error("cannot read the source {} of {}", p, key, ex);
+                    }
+                }
+            } else {
+                //the cached entry may be read at the same time, the changes go into a copy
+                c = c.copy(false);
+                for(String genFile : genFiles) {
+                    if(!c.generatedFiles().contains(genFile)) {
+                        c.generatedFiles().add(genFile);
+                    }
+                }
             }
-        }
-        //put in all the global navigation sources
-        for(Link link: site.globalNavigation().flat()) {
-        	try {
-        		Path sourceFile = Paths.get(link.getTarget().path());
-        		if(Files.exists(sourceFile)) {
-                    //LOG.debug("in source set: key={}", sourceFile);
-        			c.sourceDirs().put(sourceFile.toString(), Files.getLastModifiedTime(sourceFile).toMillis());
-        		}
-            } catch (IOException e) {
-                LOG.error("cannot cache", e);
+            c.sourceDirs().putAll(sources.sourceDirs());
+            if(sources.fingerprints() != null) {
+                if(c.fingerprints() == null) {
+                    c.fingerprints(new HashMap<>());
+                }
+                c.fingerprints().putAll(sources.fingerprints());
             }
+            //the templates and the global navigation are checked with the generation
+            c.generation(generation);
+            put(key, c);
+        } finally {
+            lock.unlock();
         }
-        /*if(LOG.isDebugEnabled()) {
-            for(Map.Entry<String, Long> m:c.sourceDirs.entrySet()) {
-                LOG.debug("in source set: key={}, value={}", m.getKey(), m.getValue());
-            }
-        }*/
-        
-        cache.put(key, c); //mapdb specific, values are immutable
         return this;
     }
 
-    private static Map<String, Long> parentMap(Site site, Path xPath) {
-        Map<String, Long> map = new HashMap<>();
-        for(Path p:Utils.listPathsSrc(site, xPath)) {
-            try {
-                map.put(p.toString(), Files.getLastModifiedTime(p).toMillis());
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
-        }
-        return map;
-    }
-    
     @Accessors(chain = true, fluent = true)
     public static class CacheEntry implements Serializable {
         private static final long serialVersionUID = -5976223970753740658L;
@@ -206,6 +522,65 @@ public class Cache {
         private Map<String, Long> sourceDirs;
         @Getter @Setter
         private List<String> generatedFiles;
+        /**
+         * only set if the cache validates with fingerprints, contains the regular files of sourceDirs
+         */
+        @Getter @Setter
+        private Map<String, Fingerprint> fingerprints;
+        /**
+         * the generation of the templates and the global navigation this entry was created with
+         */
+        @Getter @Setter
+        private String generation;
+        /**
+         * the build that created this entry, a build may add generated files to its own entries
+         */
+        @Getter @Setter
+        private long build;
+
+        /**
+         * @param withItem If false, the copy shares the item with this entry
+         * @return A copy that can be changed without changing this entry
+         */
+        private CacheEntry copy(boolean withItem) {
+            return new CacheEntry()
+                    .xItem(xItem == null || !withItem ? xItem : xItem.copy())
+                    .sourceDirs(sourceDirs == null ? null : new HashMap<>(sourceDirs))
+                    .generatedFiles(generatedFiles == null ? null : new ArrayList<>(generatedFiles))
+                    .fingerprints(fingerprints == null ? null : new HashMap<>(fingerprints))
+                    .generation(generation)
+                    .build(build);
+        }
+
+        private int weight() {
+            int weight = 1 + (sourceDirs == null ? 0 : sourceDirs.size())
+                    + (generatedFiles == null ? 0 : generatedFiles.size());
+            return xItem == null ? weight : weight + weight(xItem);
+        }
+
+        private static int weight(XItem item) {
+            //the generated content is kept with the item
+            int weight = 1 + item.generatedLength() / 1024;
+            for(XItem child : item.getItems().values()) {
+                weight += weight(child);
+            }
+            return weight;
+        }
+    }
+
+    @Accessors(chain = true, fluent = true)
+    public static class Fingerprint implements Serializable {
+        private static final long serialVersionUID = 2650397125613563862L;
+        @Getter @Setter
+        private long size;
+        @Getter @Setter
+        private long modified;
+        @Getter @Setter
+        private String hash;
+
+        public boolean sameContent(Fingerprint other) {
+            return other != null && size == other.size && hash.equals(other.hash);
+        }
     }
     
 }
@@ -0,0 +1,528 @@
+package net.xdocc;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Stores the cache entries in a compact binary format instead of Java serialization. All strings of an entry
+ * (mostly paths) are written once into a string table and referenced by index, numbers are written as
+ * varints. An item is stored with its path, its template and its model. The site, the xPath and the
+ * navigation are not stored, they are derived from the current site when the entry is read.
+ *
+ * Every entry starts with the version of the format. Entries with an unknown version, e.g. Java serialized
+ * entries of older versions, are read as empty entries that are never valid, so they are replaced by the
+ * next compile. A value of an unknown type in the model is not stored, the key is dropped with a warning,
+ * there is no fallback to Java serialization.
+ */
+public class CacheEntrySerializer implements Serializer<Cache.CacheEntry> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheEntrySerializer.class);
+
+    public static final int VERSION = 4;
+
+    /**
+     * these keys are set by the constructor of the item and are not stored
+     */
+    private static final Set<String> DERIVED = new HashSet<>(Arrays.asList(XItem.NAVIGATION, XItem.LOCALNAV,
+            XItem.IS_NAVIGATION, XItem.BREADCRUMB, XItem.CURRENT_NAV));
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int TRUE = 2;
+    private static final int FALSE = 3;
+    private static final int INTEGER = 4;
+    private static final int LONG = 5;
+    private static final int DATE = 6;
+    private static final int LIST = 7;
+    private static final int MAP = 8;
+    private static final int ITEM = 9;
+    private static final int ITEM_REF = 10;
+    private static final int SRC_SET = 11;
+    private static final int HASH_MAP = 12;
+    private static final int TREE_MAP = 13;
+
+    /**
+     * key and type of the values that were dropped, each is only logged once
+     */
+    private static final Set<String> DROPPED = ConcurrentHashMap.newKeySet();
+
+    private volatile Site site;
+
+    /**
+     * true while the entries are read without their items on this thread
+     */
+    private final ThreadLocal<Boolean> withoutItems = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * @param site The site the items are read for, needs to be set before the first entry is read
+     * @return This class
+     */
+    public CacheEntrySerializer site(Site site) {
+        this.site = site;
+        return this;
+    }
+
+    /**
+     * Reads the entries on this thread without their items, e.g. to check the generated files of all the
+     * entries of the store. The item of such an entry is null, it must not be cached.
+     */
+    public <T> T withoutItems(Supplier<T> reader) {
+        withoutItems.set(Boolean.TRUE);
+        try {
+            return reader.get();
+        } finally {
+            withoutItems.set(Boolean.FALSE);
+        }
+    }
+
+    @Override
+    public void serialize(DataOutput2 out, Cache.CacheEntry entry) throws IOException {
+        final EntryWriter writer = new EntryWriter();
+        writer.entry(entry);
+        out.writeByte(VERSION);
+        out.packInt(writer.strings.size());
+        for (String string : writer.strings.keySet()) {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.packInt(bytes.length);
+            out.write(bytes);
+        }
+        out.write(writer.body.copyBytes());
+    }
+
+    @Override
+    public Cache.CacheEntry deserialize(DataInput2 in, int available) throws IOException {
+        final int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            LOG.debug("cache entry with version {}, will be replaced", version);
+            return invalid();
+        }
+        final Site site = this.site;
+        if (site == null) {
+            throw new IOException("the site needs to be set to read cache entries");
+        }
+        try {
+            final String[] strings = new String[in.unpackInt()];
+            for (int i = 0; i < strings.length; i++) {
+                final byte[] bytes = new byte[in.unpackInt()];
+                in.readFully(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return new EntryReader(site, strings, in, !withoutItems.get()).entry();
+        } catch (IOException | RuntimeException e) {
+            //it's a cache, we compile again
+            LOG.warn("cannot read cache entry, will be replaced", e);
+            return invalid();
+        }
+    }
+
+    private static Cache.CacheEntry invalid() {
+        return new Cache.CacheEntry().sourceDirs(new HashMap<>()).generatedFiles(new ArrayList<>());
+    }
+
+    /**
+     * @return True if the value can be stored, the items of a list or a map are checked as well
+     */
+    private static boolean supported(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean || value instanceof Integer
+                || value instanceof Long || value instanceof Date || value instanceof XItem
+                || value instanceof SrcSet) {
+            return true;
+        }
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (!supported(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof Map && stringKeys((Map<?, ?>) value) && mapType((Map<?, ?>) value) != NULL) {
+            for (Object element : ((Map<?, ?>) value).values()) {
+                if (!supported(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static class EntryWriter {
+
+        final private Map<String, Integer> strings = new LinkedHashMap<>();
+        /**
+         * the items in the lists items, itemsurl and itemsnr are the same, they are written once
+         */
+        final private Map<XItem, Integer> items = new IdentityHashMap<>();
+        final private DataOutput2 body = new DataOutput2();
+
+        private void entry(Cache.CacheEntry entry) throws IOException {
+            string(entry.generation());
+            signed(entry.build());
+            final Map<String, Long> sourceDirs = entry.sourceDirs() == null ? Collections.emptyMap() : entry.sourceDirs();
+            body.packInt(sourceDirs.size());
+            for (Map.Entry<String, Long> sourceDir : sourceDirs.entrySet()) {
+                string(sourceDir.getKey());
+                signed(sourceDir.getValue());
+            }
+            final List<String> generatedFiles = entry.generatedFiles() == null ? Collections.emptyList() : entry.generatedFiles();
+            body.packInt(generatedFiles.size());
+            for (String generatedFile : generatedFiles) {
+                string(generatedFile);
+            }
+            if (entry.fingerprints() == null) {
+                body.writeBoolean(false);
+            } else {
+                body.writeBoolean(true);
+                body.packInt(entry.fingerprints().size());
+                for (Map.Entry<String, Cache.Fingerprint> fingerprint : entry.fingerprints().entrySet()) {
+                    string(fingerprint.getKey());
+                    signed(fingerprint.getValue().size());
+                    signed(fingerprint.getValue().modified());
+                    string(fingerprint.getValue().hash());
+                }
+            }
+            value(entry.xItem());
+        }
+
+        private void item(XItem item) throws IOException {
+            string(item.xPath().path());
+            final TemplateBean templateBean = item.documentGenerator().templateBean();
+            string(templateBean == null ? null : templateName(templateBean));
+            final Map<String, Object> model = item.documentGenerator().model();
+            final List<Map.Entry<String, Object>> stored = new ArrayList<>(model.size());
+            for (Map.Entry<String, Object> entry : model.entrySet()) {
+                if (derived(model, entry)) {
+                    continue;
+                }
+                if (!supported(entry.getValue())) {
+                    //the item is cached without this key, a template that needs it fails
+                    if (DROPPED.add(entry.getKey() + ":" + entry.getValue().getClass().getName())) {
+                        LOG.warn("cannot cache {} of type {} in {}, the key is not stored", entry.getKey(),
+                                entry.getValue().getClass().getName(), item.xPath());
+                    }
+                    continue;
+                }
+                stored.add(entry);
+            }
+            body.packInt(stored.size());
+            for (Map.Entry<String, Object> entry : stored) {
+                string(entry.getKey());
+                value(entry.getValue());
+            }
+        }
+
+        /**
+         * The lazy values and the flags of the path are created again by the constructor of the item
+         */
+        private boolean derived(Map<String, Object> model, Map.Entry<String, Object> entry) {
+            return DERIVED.contains(entry.getKey())
+                    || (model instanceof XModel && ((XModel) model).derived(entry.getKey()))
+                    || entry.getValue() instanceof LazyNumberModel;
+        }
+
+        private void value(Object value) throws IOException {
+            if (value == null) {
+                body.packInt(NULL);
+            } else if (value instanceof String) {
+                body.packInt(STRING);
+                string((String) value);
+            } else if (value instanceof Boolean) {
+                body.packInt((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Integer) {
+                body.packInt(INTEGER);
+                signed((Integer) value);
+            } else if (value instanceof Long) {
+                body.packInt(LONG);
+                signed((Long) value);
+            } else if (value instanceof Date) {
+                body.packInt(DATE);
+                signed(((Date) value).getTime());
+            } else if (value instanceof XItem) {
+                final Integer index = items.get(value);
+                if (index != null) {
+                    body.packInt(ITEM_REF);
+                    body.packInt(index);
+                } else {
+                    body.packInt(ITEM);
+                    item((XItem) value);
+                    //the index is assigned after the children, the same order as when reading
+                    items.put((XItem) value, items.size());
+                }
+            } else if (value instanceof SrcSet) {
+                body.packInt(SRC_SET);
+                string(((SrcSet) value).getSrc());
+                string(((SrcSet) value).getAttribute());
+            } else if (value instanceof List) {
+                body.packInt(LIST);
+                body.packInt(((List<?>) value).size());
+                for (Object element : (List<?>) value) {
+                    value(element);
+                }
+            } else if (value instanceof Map && stringKeys((Map<?, ?>) value) && mapType((Map<?, ?>) value) != NULL) {
+                //the type of the map is kept, e.g. the properties are a HashMap, the items a LinkedHashMap
+                body.packInt(mapType((Map<?, ?>) value));
+                body.packInt(((Map<?, ?>) value).size());
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    string((String) entry.getKey());
+                    value(entry.getValue());
+                }
+            } else {
+                //checked with supported() before
+                throw new IllegalArgumentException("cannot store a value of type " + value.getClass().getName());
+            }
+        }
+
+        private void string(String string) throws IOException {
+            if (string == null) {
+                body.packInt(0);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.put(string, index);
+            }
+            body.packInt(index + 1);
+        }
+
+        private void signed(long value) throws IOException {
+            //zigzag, small negative numbers stay small
+            body.packLong((value << 1) ^ (value >> 63));
+        }
+    }
+
+    private static class EntryReader {
+
+        final private Site site;
+        final private String[] strings;
+        final private DataInput2 in;
+        final private List<XItem> items = new ArrayList<>();
+        final private boolean readItems;
+
+        private EntryReader(Site site, String[] strings, DataInput2 in, boolean readItems) {
+            this.site = site;
+            this.strings = strings;
+            this.in = in;
+            this.readItems = readItems;
+        }
+
+        private Cache.CacheEntry entry() throws IOException {
+            final Cache.CacheEntry entry = new Cache.CacheEntry();
+            entry.generation(string());
+            entry.build(signed());
+            final int sourceDirsSize = in.unpackInt();
+            final Map<String, Long> sourceDirs = new HashMap<>(sourceDirsSize * 2);
+            for (int i = 0; i < sourceDirsSize; i++) {
+                sourceDirs.put(string(), signed());
+            }
+            entry.sourceDirs(sourceDirs);
+            final int generatedFilesSize = in.unpackInt();
+            final List<String> generatedFiles = new ArrayList<>(generatedFilesSize);
+            for (int i = 0; i < generatedFilesSize; i++) {
+                generatedFiles.add(string());
+            }
+            entry.generatedFiles(generatedFiles);
+            if (in.readBoolean()) {
+                final int fingerprintsSize = in.unpackInt();
+                final Map<String, Cache.Fingerprint> fingerprints = new HashMap<>(fingerprintsSize * 2);
+                for (int i = 0; i < fingerprintsSize; i++) {
+                    fingerprints.put(string(), new Cache.Fingerprint().size(signed()).modified(signed()).hash(string()));
+                }
+                entry.fingerprints(fingerprints);
+            }
+            if (!readItems) {
+                skip();
+                return entry;
+            }
+            final Object xItem = value();
+            if (xItem != null && !(xItem instanceof XItem)) {
+                throw new IOException("expected an item, but got " + xItem.getClass());
+            }
+            return entry.xItem((XItem) xItem);
+        }
+
+        private XItem item() throws IOException {
+            final String path = string();
+            final String template = string();
+            final int size = in.unpackInt();
+            final Map<String, Object> model = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                final String key = string();
+                model.put(key, value());
+            }
+            final Path p = Paths.get(path);
+            if (!Utils.isChild(p, Paths.get(site.source()))) {
+                throw new IOException("the cached path " + path + " is not part of the site " + site.source());
+            }
+            final XPath xPath = XPath.get(site, p);
+            TemplateBean templateBean = null;
+            if (template != null) {
+                try {
+                    templateBean = site.getTemplate(template);
+                } catch (IOException e) {
+                    //the template was removed, the entry is not valid anymore
+                    LOG.debug("template {} of cached item {} not found", template, path);
+                }
+            }
+            final XItem item = new XItem(xPath, new XItem.FillGenerator(site, templateBean));
+            item.documentGenerator().model().putAll(model);
+            items.add(item);
+            return item;
+        }
+
+        private Object value() throws IOException {
+            final int type = in.unpackInt();
+            switch (type) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return string();
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case INTEGER:
+                    return (int) signed();
+                case LONG:
+                    return signed();
+                case DATE:
+                    return new Date(signed());
+                case ITEM:
+                    return item();
+                case ITEM_REF:
+                    return items.get(in.unpackInt());
+                case SRC_SET:
+                    return new SrcSet(string(), string());
+                case LIST: {
+                    final int size = in.unpackInt();
+                    final List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(value());
+                    }
+                    return list;
+                }
+                case MAP:
+                case HASH_MAP:
+                case TREE_MAP: {
+                    final int size = in.unpackInt();
+                    final Map<String, Object> map = type == MAP ? new LinkedHashMap<>(size * 2)
+                            : type == HASH_MAP ? new HashMap<>(size * 2) : new TreeMap<>();
+                    for (int i = 0; i < size; i++) {
+                        final String key = string();
+                        map.put(key, value());
+                    }
+                    return map;
+                }
+                default:
+                    throw new IOException("unknown type " + type + " in cache entry");
+            }
+        }
+
+        /**
+         * Reads a value without creating it
+         */
+        private void skip() throws IOException {
+            final int type = in.unpackInt();
+            switch (type) {
+                case NULL:
+                case TRUE:
+                case FALSE:
+                    break;
+                case STRING:
+                    string();
+                    break;
+                case INTEGER:
+                case LONG:
+                case DATE:
+                    signed();
+                    break;
+                case ITEM: {
+                    string();
+                    string();
+                    final int size = in.unpackInt();
+                    for (int i = 0; i < size; i++) {
+                        string();
+                        skip();
+                    }
+                    break;
+                }
+                case ITEM_REF:
+                    in.unpackInt();
+                    break;
+                case SRC_SET:
+                    string();
+                    string();
+                    break;
+                case LIST: {
+                    final int size = in.unpackInt();
+                    for (int i = 0; i < size; i++) {
+                        skip();
+                    }
+                    break;
+                }
+                case MAP:
+                case HASH_MAP:
+                case TREE_MAP: {
+                    final int size = in.unpackInt();
+                    for (int i = 0; i < size; i++) {
+                        string();
+                        skip();
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("unknown type " + type + " in cache entry");
+            }
+        }
+
+        private String string() throws IOException {
+            final int index = in.unpackInt();
+            return index == 0 ? null : strings[index - 1];
+        }
+
+        private long signed() throws IOException {
+            final long value = in.unpackLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+
+    private static boolean stringKeys(Map<?, ?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The type of the map, or NULL if the map cannot be restored with the same type
+     */
+    private static int mapType(Map<?, ?> map) {
+        if (map.getClass() == LinkedHashMap.class) {
+            return MAP;
+        } else if (map.getClass() == HashMap.class) {
+            return HASH_MAP;
+        } else if (map.getClass() == TreeMap.class && ((TreeMap<?, ?>) map).comparator() == null) {
+            return TREE_MAP;
+        }
+        return NULL;
+    }
+
+    private static String templateName(TemplateBean templateBean) {
+        final String fileName = Paths.get(templateBean.file()).getFileName().toString();
+        return fileName.endsWith(".ftl") ? fileName.substring(0, fileName.length() - 4) : fileName;
+    }
+}
@@ -8,10 +8,16 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
@@ -25,11 +31,36 @@ public class Compiler {
 
     final private ExecutorService executorServiceCompiler;
     
-    final private Map<String, Integer> filesCounter;
+    final private FilesCounter filesCounter;
     
     final private Cache cache;
 
-    public Compiler(ExecutorService executorServiceCompiler, Site site, Map<String, Integer> filesCounter, Cache cache) {
+    final private DependencyGraph dependencies;
+
+    final private DependencyGraph.ChangeSet changeSet;
+
+    /**
+     * (path, depth) -> result of the directory or the file, the depth of a file is null. Every directory and
+     * every file is compiled only once per run.
+     */
+    final private Map<Pair<String, Integer>, CompletableFuture<XItem>> results = new ConcurrentHashMap<>();
+
+    /**
+     * link -> the paths the link waits for in this run
+     */
+    final private Map<Path, List<Wait>> links = new HashMap<>();
+
+    public Compiler(ExecutorService executorServiceCompiler, Site site, FilesCounter filesCounter, Cache cache) {
+        this(executorServiceCompiler, site, filesCounter, cache, new DependencyGraph(), null);
+    }
+
+    /**
+     * @param dependencies The graph that collects the dependencies found while compiling
+     * @param changeSet If set, only the directories affected by the change set are compiled, all the other
+     * directories are taken from the cache. If null, all directories are compiled.
+     */
+    public Compiler(ExecutorService executorServiceCompiler, Site site, FilesCounter filesCounter, Cache cache,
+            DependencyGraph dependencies, DependencyGraph.ChangeSet changeSet) {
         this.executorServiceCompiler = executorServiceCompiler;
         this.handlers = site.handlers();
         for(Handler h:handlers) {
@@ -40,26 +71,238 @@ public class Compiler {
         this.site = site;
         this.filesCounter = filesCounter;
         this.cache = cache;
+        this.dependencies = dependencies;
+        this.changeSet = changeSet;
+    }
+
+    public DependencyGraph dependencies() {
+        return dependencies;
     }
     
     public CompletableFuture<XItem> compile(final Path path) {
         return compile(path, 0);
     }
 
-    public XItem compile(XPath child) throws Exception {
-        for (Handler handler : handlers) {
-            if (handler.canHandle(site, child)) {
+    /**
+     * Returns the result of a file of this run. If the file is not compiled yet, it will be compiled now, and
+     * other callers, e.g. a link to this file, will get the same result.
+     */
+    public CompletableFuture<XItem> compile(XPath child) {
+        final CompletableFuture<XItem> future = new CompletableFuture<>();
+        final CompletableFuture<XItem> existing = results.putIfAbsent(Pair.create(child.path(), null), future);
+        if (existing != null) {
+            return existing;
+        }
+        complete(future, compile(child, 0));
+        return future;
+    }
+
+    /**
+     * Returns the result of the target of a link from this run. A directory waits for everything below it, so
+     * the target must not wait for the link, e.g. two directories that link each other. In such a cycle the
+     * link whose path sorts last is refused, no matter which link asked first.
+     *
+     * @return The result of the target, null if the link was refused
+     */
+    public CompletableFuture<XItem> link(XPath link, XPath target) {
+        final Path targetPath = Paths.get(target.path());
+        final Wait wait = new Wait(Paths.get(link.path()), targetPath);
+        final List<Wait> refused = register(wait);
+        //completed outside of the lock, the links that waited continue now
+        for (Wait w : refused) {
+            LOG.warn("link {} points to {}, which waits for this link, ignoring", w.link, w.target);
+            w.result.complete(null);
+        }
+        if (refused.contains(wait)) {
+            return wait.result;
+        }
+        wait.result.whenComplete((xItem, e) -> unregister(wait));
+        complete(wait.result, target.isDirectory() ? directory(targetPath) : compile(target));
+        return wait.result;
+    }
+
+    /**
+     * @return The waits that are refused to break the cycles, this wait is refused if it is one of them
+     */
+    private synchronized List<Wait> register(Wait wait) {
+        links.computeIfAbsent(wait.link, key -> new ArrayList<>()).add(wait);
+        final List<Wait> refused = new ArrayList<>(1);
+        List<Wait> cycle;
+        while ((cycle = cycle(wait)) != null) {
+            final Wait last = Collections.max(cycle, Comparator.comparing((Wait w) -> w.link.toString()));
+            unregister(last);
+            refused.add(last);
+            if (last == wait) {
+                break;
+            }
+        }
+        return refused;
+    }
+
+    private synchronized void unregister(Wait wait) {
+        final List<Wait> waits = links.get(wait.link);
+        if (waits != null && waits.remove(wait) && waits.isEmpty()) {
+            links.remove(wait.link);
+        }
+    }
+
+    /**
+     * @return The waits that lead from the target of the given wait back to its link, null if there is no
+     * cycle
+     */
+    private List<Wait> cycle(Wait start) {
+        final Map<Path, Wait> reachedBy = new HashMap<>();
+        final Deque<Path> waiting = new ArrayDeque<>();
+        reachedBy.put(start.target, start);
+        waiting.add(start.target);
+        while (!waiting.isEmpty()) {
+            final Path path = waiting.poll();
+            if (start.link.startsWith(path)) {
+                final List<Wait> cycle = new ArrayList<>();
+                for (Wait wait = reachedBy.get(path); wait != start; wait = reachedBy.get(wait.from)) {
+                    cycle.add(wait);
+                }
+                cycle.add(start);
+                return cycle;
+            }
+            for (Map.Entry<Path, List<Wait>> entry : links.entrySet()) {
+                if (!entry.getKey().startsWith(path)) {
+                    continue;
+                }
+                for (Wait wait : entry.getValue()) {
+                    if (!wait.result.isDone() && !reachedBy.containsKey(wait.target)) {
+                        wait.from = path;
+                        reachedBy.put(wait.target, wait);
+                        waiting.add(wait.target);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void complete(CompletableFuture<XItem> future, CompletableFuture<XItem> result) {
+        result.whenComplete((xItem, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(xItem);
+            }
+        });
+    }
+
+    /**
+     * Tries the handlers starting at the given index, until one handler returns an item. Handlers that
+     * depend on other results, such as the link handler, complete asynchronously and do not block a thread.
+     */
+    private CompletableFuture<XItem> compile(XPath child, int index) {
+        for (int i = index; i < handlers.size(); i++) {
+            final Handler handler = handlers.get(i);
+            if (!handler.canHandle(site, child)) {
+                continue;
+            }
+            if (handler instanceof HandlerLink) {
+                final int next = i + 1;
+                return ((HandlerLink) handler).compileAsync(site, child, filesCounter, cache)
+                        .thenCompose(xItem -> xItem != null ?
+                                CompletableFuture.completedFuture(xItem) : compile(child, next));
+            }
+            try {
                 final XItem xItem = handler.compile(site, child, filesCounter, cache);
                 if(xItem != null) {
-                    return xItem;
+                    return CompletableFuture.completedFuture(xItem);
                 }
+            } catch (Exception e) {
+                final CompletableFuture<XItem> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
             }
         }
-        return null;
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Returns the result of a directory of this run. If the directory is not compiled yet, it will be
+     * compiled now, and other callers will get the same result.
+     *
+     * @param path The directory
+     * @return The future of the compiled directory
+     */
+    public CompletableFuture<XItem> directory(final Path path) {
+        return compile(path, depth(path));
+    }
+
+    /**
+     * @return The number of directories between the root and the path
+     */
+    public int depth(final Path path) {
+        final Path relative = Paths.get(site.source()).relativize(path);
+        return relative.toString().isEmpty() ? 0 : relative.getNameCount();
+    }
+
+    /**
+     * @return The cached directory if nothing changed in this directory since the last run, null otherwise
+     */
+    private XItem unchanged(XPath child, Path childPath) {
+        if (changeSet == null || changeSet.isDirty(childPath)) {
+            return null;
+        }
+        Cache.CacheEntry cached = cache.getCached(site, child);
+        if (cached == null || cached.xItem() == null) {
+            return null;
+        }
+        LOG.debug("unchanged: {}", child);
+        return cached.xItem();
+    }
+
+    /**
+     * Compiles a single child of a directory as a task of its own. If the child is a directory, the
+     * directory is compiled as well, unless it was completely consumed by a handler (e.g. pandoc).
+     *
+     * @return The items of the child: none, the item created by the handler and/or the directory listing
+     */
+    private CompletableFuture<List<XItem>> compileChild(final XPath child, final int depth) {
+        return CompletableFuture.supplyAsync(() -> compile(child), executorServiceCompiler)
+                .thenCompose(future -> future).thenCompose(xItem -> {
+            final boolean consumed = xItem != null && Boolean.TRUE.equals(xItem.getConsumesDirectory());
+            final List<XItem> results = new ArrayList<>(2);
+            if (xItem != null && !consumed) {
+                //the item of this run is shared with the links to it, the depth is set on a copy
+                final XItem copy = xItem.copy();
+                copy.setDepth(depth);
+                results.add(copy);
+            }
+            if (!child.isDirectory() || consumed) {
+                return CompletableFuture.completedFuture(results);
+            }
+            return compile(Paths.get(child.path()), depth + 1).thenApply(doc -> {
+                results.add(doc);
+                return results;
+            });
+        });
     }
 
+    /**
+     * Returns the result of a directory of this run, a directory that did not change is taken from the cache
+     */
     public CompletableFuture<XItem> compile(final Path path,
             final int depth) {
+        final CompletableFuture<XItem> future = new CompletableFuture<>();
+        final CompletableFuture<XItem> existing = results.putIfAbsent(Pair.create(path.toString(), depth), future);
+        if (existing != null) {
+            return existing;
+        }
+        final XItem unchanged = unchanged(XPath.get(site, path), path);
+        if (unchanged != null) {
+            future.complete(unchanged);
+        } else {
+            complete(future, compileDirectory(path, depth));
+        }
+        return future;
+    }
+
+    private CompletableFuture<XItem> compileDirectory(final Path path,
+            final int depth) {
         final CompletableFuture<XItem> completableFuture = new CompletableFuture<>();
 
         CompletableFuture.runAsync(() -> {
@@ -69,40 +312,29 @@ public class Compiler {
 
                 LOG.info("compiling: "+children);
 
-                List<CompletableFuture<XItem>> futures = new ArrayList<>();
-                final List<XItem> results = new ArrayList<>();
-
+                //every child is a task of its own, so that idle workers can steal them
+                final List<CompletableFuture<List<XItem>>> futures = new ArrayList<>(children.size());
                 for (XPath child : children) {
-                    final XItem xItem = compile(child);
-                    if(xItem != null && !Boolean.TRUE.equals(xItem.getConsumesDirectory())) {
-                        xItem.setDepth(depth);
-                        results.add(xItem);
-                    }
-
-                    if (child.isDirectory() && (xItem == null || !Boolean.TRUE.equals(xItem.getConsumesDirectory()))) {
-                        //recursion, only if the directory is not completely consumed by e.g. pandoc
-                        futures.add(compile(Paths.get(child.path()), depth + 1));
-                    }
+                    futures.add(compileChild(child, depth));
                 }
                 CompletableFuture.allOf(futures.stream()
                                 .toArray(size -> new CompletableFuture[size])
-                ).thenRunAsync(() -> {
-                    results.addAll(
-                        futures.stream()
-                            .map(v -> v.join())
-                            .collect(Collectors.toList())
-                    );
+                ).whenCompleteAsync((ignore, e) -> {
+                    if (e != null) {
+                        LOG.error("compiler error", e);
+                        completableFuture.completeExceptionally(e);
+                        return;
+                    }
+                    final List<XItem> results = futures.stream()
+                            .flatMap(v -> v.join().stream())
+                            .collect(Collectors.toList());
                     try {
                         XItem doc = HandlerDirectory.compileList(site,path, results, filesCounter, cache, depth);
-                        completableFuture.complete(doc); // or result for flat
-                        //completableFuture.complete(results);
-                        
+                        completableFuture.complete(doc);
                     } catch (Throwable t) {
                         LOG.error("compiler error", t);
                         completableFuture.completeExceptionally(t);
                     }
-                    
-                    
                 }, executorServiceCompiler);
             } catch (Throwable t) {
                 LOG.error("compiler error", t);
@@ -113,4 +345,22 @@ public class Compiler {
 
         return completableFuture;
     }
+
+    /**
+     * A link that waits for the result of a target
+     */
+    private static class Wait {
+        final private Path link;
+        final private Path target;
+        final private CompletableFuture<XItem> result = new CompletableFuture<>();
+        /**
+         * the path that led to this wait while searching a cycle
+         */
+        private Path from;
+
+        private Wait(Path link, Path target) {
+            this.link = link;
+            this.target = target;
+        }
+    }
 }
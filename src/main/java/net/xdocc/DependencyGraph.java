@@ -0,0 +1,196 @@
+package net.xdocc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keeps track of which sources need to be recompiled if a set of files changed. A directory depends on
+ * its children, a .link file depends on the paths it references. The graph is filled while compiling and
+ * is kept between the runs of the daemon, so that a change only recompiles the affected directories.
+ */
+public class DependencyGraph {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DependencyGraph.class);
+
+    /**
+     * referenced path -> sources that need to be recompiled if something below the referenced path changes
+     */
+    final private Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+    /**
+     * the referenced paths sorted, so that the ones below a changed directory are found by their prefix
+     */
+    final private NavigableSet<String> targets = new ConcurrentSkipListSet<>();
+
+    public void addDependency(XPath target, XPath dependent) {
+        final XPath directory = target.isDirectory() ? target : target.getParent();
+        if (directory == null) {
+            return;
+        }
+        final String key = Paths.get(directory.path()).normalize().toString();
+        dependents.computeIfAbsent(key, k -> {
+            targets.add(k);
+            return ConcurrentHashMap.newKeySet();
+        }).add(dependent.path());
+    }
+
+    /**
+     * @return The sources that reference the path, something above it or something below it
+     */
+    private Set<String> dependents(Path path) {
+        final Set<String> result = new HashSet<>();
+        for (Path p = path; p != null; p = p.getParent()) {
+            final Set<String> above = dependents.get(p.toString());
+            if (above != null) {
+                result.addAll(above);
+            }
+        }
+        final String prefix = path.toString() + path.getFileSystem().getSeparator();
+        for (String target : targets.subSet(prefix, prefix + Character.MAX_VALUE)) {
+            result.addAll(dependents.get(target));
+        }
+        return result;
+    }
+
+    /**
+     * A change in a template, in a .xdocc file or an event we could not assign to a path affects the whole
+     * site. In that case we compile everything.
+     *
+     * @param site The site
+     * @param changedPaths The paths reported by the watcher
+     * @return True if the whole site needs to be compiled
+     */
+    public boolean requiresFullCompile(Site site, Collection<Path> changedPaths) {
+        final Path source = Paths.get(site.source());
+        final Path templates = source.resolve(".templates");
+        for (Path changed : changedPaths) {
+            if (changed.equals(source) || Utils.isChild(changed, templates)) {
+                return true;
+            }
+            if (changed.getFileName() != null && ".xdocc".equals(changed.getFileName().toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ChangeSet changeSet(Site site, Collection<Path> changedPaths, Cache cache) {
+        final Path source = Paths.get(site.source());
+        final Set<String> changed = new HashSet<>();
+        final Set<String> trees = new HashSet<>();
+        final Set<String> links = new HashSet<>();
+
+        final Deque<Path> todo = new ArrayDeque<>(changedPaths);
+        while (!todo.isEmpty()) {
+            final Path path = todo.poll().normalize();
+            if (!Utils.isChild(path, source) || !changed.add(path.toString())) {
+                continue;
+            }
+            //a deleted path or a new directory is compiled completely
+            if (!Files.exists(path) || (Files.isDirectory(path) && !cache.isCached(XPath.get(site, path)))) {
+                trees.add(path.toString());
+            }
+            //all the .link files that reference this path (or something below) are affected as well
+            for (String dependent : dependents(path)) {
+                if (links.add(dependent)) {
+                    todo.add(Paths.get(dependent));
+                }
+            }
+        }
+
+        final Set<String> dirty = new HashSet<>();
+        for (String path : changed) {
+            for (Path p = Paths.get(path); p != null && Utils.isChild(p, source); p = p.getParent()) {
+                if (!dirty.add(p.toString())) {
+                    break;
+                }
+            }
+        }
+        LOG.debug("changed: {}, dirty: {}, dependents: {}", changed, dirty, links);
+        return new ChangeSet(site, dirty, trees, links);
+    }
+
+    public static class ChangeSet {
+
+        final private Site site;
+        /**
+         * the changed paths, the affected .link files and all their parent directories
+         */
+        final private Set<String> dirty;
+        /**
+         * changed paths that are compiled including everything below
+         */
+        final private Set<String> trees;
+        final private Set<String> dependents;
+
+        private ChangeSet(Site site, Set<String> dirty, Set<String> trees, Set<String> dependents) {
+            this.site = site;
+            this.dirty = dirty;
+            this.trees = trees;
+            this.dependents = dependents;
+        }
+
+        public boolean isDirty(Path path) {
+            if (dirty.contains(path.toString())) {
+                return true;
+            }
+            for (Path p = path; p != null; p = p.getParent()) {
+                if (trees.contains(p.toString())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return The .link files that reference a changed path. They need to be compiled, even if the
+         * cache entry of the .link file itself is still valid.
+         */
+        public Set<String> dependents() {
+            return dependents;
+        }
+
+        /**
+         * Only the generated files of the dirty directories and the changed trees can become unused. All other
+         * generated files are left untouched.
+         *
+         * @return The files counter with all generated files that need to be referenced again in this run
+         */
+        public FilesCounter filesCounter() throws IOException {
+            final FilesCounter filesCounter = new FilesCounter(site);
+            final Path generated = Paths.get(site.generated());
+            for (String path : dirty) {
+                if (!Files.isDirectory(Paths.get(path))) {
+                    continue;
+                }
+                final Path target = generated.resolve(XPath.get(site, Paths.get(path)).getTargetURL());
+                if (!Files.isDirectory(target)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(target)) {
+                    for (Path p : ds) {
+                        if (Files.isRegularFile(p)) {
+                            filesCounter.add(p);
+                        }
+                    }
+                }
+            }
+            for (String path : trees) {
+                final Path target = generated.resolve(XPath.get(site, Paths.get(path)).getTargetURL());
+                if (!Files.isDirectory(target) || target.equals(generated)) {
+                    continue;
+                }
+                filesCounter.addTree(target);
+            }
+            return filesCounter;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package net.xdocc;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often the generated files are referenced in a build. The files that are known before the build
+ * start with 0, the ones that are still 0 after the build are not used anymore. Only the files are counted,
+ * a directory is used if one of its files is used.
+ */
+public class FilesCounter {
+
+    final private Path generated;
+    final private Map<String, LongAdder> files = new ConcurrentHashMap<>();
+    final private Set<String> directories = ConcurrentHashMap.newKeySet();
+
+    public FilesCounter(Site site) {
+        this.generated = Paths.get(site.generated());
+    }
+
+    /**
+     * Adds a file that was generated before, it will be deleted if it is not used in this build
+     */
+    public FilesCounter add(Path path) {
+        files.putIfAbsent(path.normalize().toString(), new LongAdder());
+        return this;
+    }
+
+    /**
+     * Adds a directory that was generated before, it will be deleted if none of its files is used in this build
+     */
+    public FilesCounter addDirectory(Path path) {
+        directories.add(path.normalize().toString());
+        return this;
+    }
+
+    /**
+     * Adds all files and directories of a generated tree, including the root
+     */
+    public FilesCounter addTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                addDirectory(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return this;
+    }
+
+    public FilesCounter increase(Path generatedFile) {
+        files.computeIfAbsent(generatedFile.normalize().toString(), k -> new LongAdder()).increment();
+        return this;
+    }
+
+    /**
+     * @return How often the file was used in this build, 0 for directories
+     */
+    public long count(Path path) {
+        final LongAdder count = files.get(path.normalize().toString());
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * @return The files that were used in this build, without their directories
+     */
+    public Collection<String> used() {
+        final List<String> used = new ArrayList<>();
+        for (Map.Entry<String, LongAdder> entry : files.entrySet()) {
+            if (entry.getValue().sum() > 0) {
+                used.add(entry.getKey());
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Call after the build, the counters must not change anymore.
+     *
+     * @return The known files of the generated directory that were not used in this build
+     */
+    public Collection<String> unusedFiles() {
+        final List<String> unused = new ArrayList<>();
+        for (Map.Entry<String, LongAdder> entry : files.entrySet()) {
+            if (entry.getValue().sum() <= 0 && !directories.contains(entry.getKey())
+                    && Utils.isChild(Paths.get(entry.getKey()), generated)) {
+                unused.add(entry.getKey());
+            }
+        }
+        return unused;
+    }
+
+    /**
+     * Call after the build, the counters must not change anymore.
+     *
+     * @return The known directories of the generated directory without a used file, the deepest first
+     */
+    public List<String> unusedDirectories() {
+        final Set<String> usedDirectories = new HashSet<>();
+        for (String file : used()) {
+            Path parent = Paths.get(file).getParent();
+            while (parent != null && parent.startsWith(generated)
+                    && usedDirectories.add(parent.toString())) {
+                parent = parent.getParent();
+            }
+        }
+        final List<String> unused = new ArrayList<>();
+        for (String directory : directories) {
+            if (!usedDirectories.contains(directory) && count(Paths.get(directory)) <= 0
+                    && Utils.isChild(Paths.get(directory), generated)) {
+                unused.add(directory);
+            }
+        }
+        //reverse order, the children of a directory come before the directory
+        unused.sort(Comparator.reverseOrder());
+        return unused;
+    }
+
+    @Override
+    public String toString() {
+        return files.toString();
+    }
+}
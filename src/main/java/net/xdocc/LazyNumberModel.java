@@ -0,0 +1,64 @@
+package net.xdocc;
+
+import freemarker.template.TemplateNumberModel;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A number of the model that is only computed if a template reads it, e.g. the number of files of a
+ * directory. The number is not part of the version of the model, so a rendering remembers if it read one.
+ */
+class LazyNumberModel implements TemplateNumberModel {
+
+    /**
+     * true if a lazy number was read since the rendering on this thread started
+     */
+    private static final ThreadLocal<Boolean> READ = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final LongSupplier supplier;
+
+    LazyNumberModel(LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    /**
+     * Call before rendering
+     *
+     * @return The state of an outer rendering, pass it to {@link #end(boolean)}
+     */
+    static boolean begin() {
+        final boolean outer = READ.get();
+        READ.set(Boolean.FALSE);
+        return outer;
+    }
+
+    /**
+     * Call after rendering, an outer rendering read the number as well
+     *
+     * @return True if a lazy number was read since {@link #begin()}
+     */
+    static boolean end(boolean outer) {
+        final boolean read = READ.get();
+        READ.set(outer || read);
+        return read;
+    }
+
+    /**
+     * Call if content is reused that read a lazy number
+     */
+    static void read() {
+        READ.set(Boolean.TRUE);
+    }
+
+    @Override
+    public Number getAsNumber() {
+        read();
+        return supplier.getAsLong();
+    }
+
+    @Override
+    public String toString() {
+        read();
+        return Long.toString(supplier.getAsLong());
+    }
+}
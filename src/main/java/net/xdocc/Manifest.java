@@ -0,0 +1,198 @@
+package net.xdocc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The generated files of the last builds with the source that created them and the hash of their content,
+ * if known. It is stored with the cache, so that a build does not need to walk the generated directory to
+ * find the files that are not generated anymore. The changes of a build are written with the cache entries
+ * of the build, see {@link #flush()}.
+ */
+public class Manifest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Manifest.class);
+
+    private static final Written REMOVED = new Written(null, null, 0);
+
+    /**
+     * generated file -> source, empty if the source is not known
+     */
+    final private Map<String, String> sources;
+    /**
+     * generated file -> hash of the content
+     */
+    final private Map<String, String> hashes;
+    /**
+     * generated file -> timestamp of the file when the hash was stored
+     */
+    final private Map<String, Long> modified;
+    /**
+     * the changes of the current build
+     */
+    final private Map<String, Written> pending = new ConcurrentHashMap<>();
+
+    public Manifest(Map<String, String> sources, Map<String, String> hashes, Map<String, Long> modified) {
+        this.sources = sources;
+        this.hashes = hashes;
+        this.modified = modified;
+    }
+
+    public boolean isEmpty() {
+        return sources.isEmpty() && pending.isEmpty();
+    }
+
+    public void clear() {
+        sources.clear();
+        hashes.clear();
+        modified.clear();
+        pending.clear();
+    }
+
+    /**
+     * Call after the generated file was written or found unchanged
+     */
+    public void written(Path generatedFile, Path source, String hash) throws IOException {
+        pending.put(generatedFile.toString(), new Written(source == null ? "" : source.toString(), hash,
+                Files.getLastModifiedTime(generatedFile).toMillis()));
+    }
+
+    /**
+     * @return True if the generated file has the given hash. It is only true if the file was not touched since
+     * the hash was stored, the file itself is not read.
+     */
+    public boolean hasHash(Path generatedFile, String hash) throws IOException {
+        final String key = generatedFile.toString();
+        final Written written = pending.get(key);
+        final String storedHash;
+        final Long storedModified;
+        if (written != null) {
+            storedHash = written.hash;
+            storedModified = written.modified;
+        } else {
+            storedHash = hashes.get(key);
+            storedModified = modified.get(key);
+        }
+        return storedHash != null && storedHash.equals(hash) && storedModified != null
+                && storedModified == Files.getLastModifiedTime(generatedFile).toMillis();
+    }
+
+    private boolean contains(String generatedFile) {
+        final Written written = pending.get(generatedFile);
+        return written != null ? written != REMOVED : sources.containsKey(generatedFile);
+    }
+
+    /**
+     * @return The files counter with all generated files and their directories, all of them are unused
+     * until a handler generates them again
+     */
+    public FilesCounter filesCounter(Site site) {
+        final FilesCounter filesCounter = new FilesCounter(site);
+        final Set<Path> directories = new HashSet<>();
+        final Set<String> generatedFiles = new HashSet<>(sources.keySet());
+        for (Map.Entry<String, Written> entry : pending.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                generatedFiles.remove(entry.getKey());
+            } else {
+                generatedFiles.add(entry.getKey());
+            }
+        }
+        for (String generatedFile : generatedFiles) {
+            final Collection<Path> paths = Utils.listPathsGen(site, Paths.get(generatedFile));
+            if (paths == null) {
+                continue;
+            }
+            //the file first, then its directories until one is already in
+            final Iterator<Path> iterator = paths.iterator();
+            filesCounter.add(iterator.next());
+            while (iterator.hasNext()) {
+                final Path directory = iterator.next();
+                if (!directories.add(directory)) {
+                    break;
+                }
+                filesCounter.addDirectory(directory);
+            }
+        }
+        return filesCounter;
+    }
+
+    /**
+     * Adds the files that were generated in this build and removes the files that were deleted
+     *
+     * @param filesCounter The files counter after deleting the unused files
+     */
+    public void update(FilesCounter filesCounter) {
+        int added = 0;
+        int removed = 0;
+        for (String path : filesCounter.used()) {
+            if (!contains(path) && Files.isRegularFile(Paths.get(path))) {
+                pending.put(path, new Written("", null, 0));
+                added++;
+            }
+        }
+        //a file that could not be deleted (or a dry run) stays in the manifest
+        for (String path : filesCounter.unusedFiles()) {
+            if (!Files.exists(Paths.get(path)) && contains(path)) {
+                pending.put(path, REMOVED);
+                removed++;
+            }
+        }
+        LOG.debug("manifest: {} files added, {} files removed", added, removed);
+    }
+
+    /**
+     * Writes the changes of this build to the store, it needs to be committed afterwards
+     *
+     * @return The number of written files
+     */
+    public int flush() {
+        int counter = 0;
+        for (String key : new ArrayList<>(pending.keySet())) {
+            final Written written = pending.remove(key);
+            if (written == REMOVED) {
+                sources.remove(key);
+                hashes.remove(key);
+                modified.remove(key);
+            } else {
+                sources.put(key, written.source);
+                if (written.hash != null) {
+                    hashes.put(key, written.hash);
+                    modified.put(key, written.modified);
+                }
+            }
+            counter++;
+        }
+        return counter;
+    }
+
+    /**
+     * Discards the changes of this build, e.g. if the build failed
+     */
+    public void rollback() {
+        pending.clear();
+    }
+
+    private static class Written {
+        final private String source;
+        final private String hash;
+        final private long modified;
+
+        private Written(String source, String hash, long modified) {
+            this.source = source;
+            this.hash = hash;
+            this.modified = modified;
+        }
+    }
+}
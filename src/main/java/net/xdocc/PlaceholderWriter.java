@@ -0,0 +1,133 @@
+package net.xdocc;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Replaces ${key} with the value of the model while writing, the same as
+ * {@link Utils#postApplyTemplate(String, Map, String...)} but without having the page in memory. Only the
+ * characters of a possible placeholder are held back.
+ */
+class PlaceholderWriter extends Writer {
+
+    private final Writer out;
+    private final String[] keys;
+    private final String[] values;
+    private final StringBuilder held = new StringBuilder();
+
+    PlaceholderWriter(Writer out, Map<String, Object> model, String... keys) {
+        this.out = out;
+        this.keys = keys;
+        this.values = Utils.postApplyValues(model, keys);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (values == null || (held.length() == 0 && c != '$')) {
+            out.write(c);
+            return;
+        }
+        held.append((char) c);
+        match();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (values == null) {
+            out.write(cbuf, off, len);
+            return;
+        }
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (held.length() == 0) {
+                final int start = i;
+                while (i < end && cbuf[i] != '$') {
+                    i++;
+                }
+                if (i > start) {
+                    out.write(cbuf, start, i - start);
+                }
+                if (i == end) {
+                    break;
+                }
+            }
+            held.append(cbuf[i++]);
+            match();
+        }
+    }
+
+    private void match() throws IOException {
+        while (held.length() > 0) {
+            final int key = state();
+            if (key >= 0) {
+                out.write(values[key]);
+                held.setLength(0);
+                return;
+            }
+            if (key == PREFIX) {
+                return;
+            }
+            //not a placeholder, write until the next $
+            int next = 1;
+            while (next < held.length() && held.charAt(next) != '$') {
+                next++;
+            }
+            out.write(held.substring(0, next));
+            held.delete(0, next);
+        }
+    }
+
+    private static final int PREFIX = -1;
+    private static final int NONE = -2;
+
+    /**
+     * @return The index of the key if the held characters are a complete placeholder, PREFIX if they can
+     * become one, NONE otherwise
+     */
+    private int state() {
+        if (held.length() == 1) {
+            return PREFIX;
+        }
+        if (held.charAt(1) != '{') {
+            return NONE;
+        }
+        final int offset = 2;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            final String key = keys[i];
+            final int length = Math.min(held.length() - offset, key.length() + 1);
+            boolean match = true;
+            for (int j = 0; j < length && match; j++) {
+                match = held.charAt(offset + j) == (j < key.length() ? key.charAt(j) : '}');
+            }
+            if (!match || held.length() > offset + key.length() + 1) {
+                continue;
+            }
+            return held.length() == offset + key.length() + 1 ? i : PREFIX;
+        }
+        return NONE;
+    }
+
+    /**
+     * Writes the held characters, at the end of the page they cannot become a placeholder anymore
+     */
+    public void finish() throws IOException {
+        out.write(held.toString());
+        held.setLength(0);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+}
@@ -12,7 +12,9 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -28,7 +30,7 @@ public class RecursiveWatcherService {
     private final WatchService watcher;
     private final ExecutorService executor;
     private final Listener listener;
-    private final BlockingQueue<Boolean> queue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Path> queue = new LinkedBlockingQueue<>();
     private volatile boolean running = true;
 
     public RecursiveWatcherService(Site site, Listener listener) throws IOException {
@@ -41,7 +43,6 @@ public class RecursiveWatcherService {
     public void shutdown() {
         LOG.info("Stoping Recursive Watcher");
         running = false;
-        queue.add(Boolean.FALSE);
         try {
             watcher.close();
         } catch (IOException e) {
@@ -93,15 +94,19 @@ public class RecursiveWatcherService {
                 }
 
                 key.pollEvents().stream()
-                        .filter(e -> (e.kind() != OVERFLOW))
-                        .map(e -> ((WatchEvent<?>) e).context())
-                        .forEach(p -> {
-                            final Path absPath = dir.resolve((Path)p);
+                        .forEach(e -> {
+                            if (e.kind() == OVERFLOW) {
+                                //events got lost, we don't know what changed in this directory
+                                LOG.debug("Events lost for {}", dir);
+                                queue.add(dir);
+                                return;
+                            }
+                            final Path absPath = dir.resolve((Path) e.context());
                             if (absPath.toFile().isDirectory()) {
                                 register.accept(absPath);
                             }
                             LOG.debug("File/directory changed {}", absPath);
-                            queue.add(Boolean.TRUE);
+                            queue.add(absPath);
                         });
 
                 boolean valid = key.reset();
@@ -113,24 +118,25 @@ public class RecursiveWatcherService {
         
         executor.submit(() -> {
             while (running) {
+                final Set<Path> changedPaths = new HashSet<>();
                 try {
-                    queue.take();
-                    Thread.sleep(1000);
-                    Boolean any;
-                    if((any = queue.poll()) != null) {
-                        queue.clear();
-                        queue.offer(any);
-                        continue;
-                    }
+                    changedPaths.add(queue.take());
+                    //collect changes until nothing changed for a second
+                    do {
+                        Thread.sleep(1000);
+                    } while (queue.drainTo(changedPaths) > 0);
                 } catch (InterruptedException ex) {
                     return;
                 }
-                listener.filesChanged();
+                listener.filesChanged(changedPaths);
             }
         });
     }
     
     public interface Listener {
-        void filesChanged();
+        /**
+         * @param changedPaths The created, modified or deleted files and directories since the last call
+         */
+        void filesChanged(Set<Path> changedPaths);
     }
 }
@@ -7,31 +7,41 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.OptionHandlerFilter;
 import org.mapdb.DB;
+import org.mapdb.DBException;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
-import org.mapdb.serializer.SerializerJava;
+import org.mapdb.StoreWAL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Service {
 
     private static final Logger LOG = LoggerFactory.getLogger(Service.class);
 
-    private final ExecutorService executorServiceCompiler = Executors
-            .newCachedThreadPool();
+    private ForkJoinPool executorServiceCompiler;
+    private ExecutorService executorServiceDelete;
 
     private final List<RecursiveWatcherService> watchServices = new ArrayList<>();
 
+    private final DependencyGraph dependencies = new DependencyGraph();
+
+    /**
+     * a build and the compaction of the cache must not run at the same time
+     */
+    private final ReentrantLock buildLock = new ReentrantLock();
+
+    private ScheduledExecutorService compactService;
+
     @Option(name = "-s", required = true, usage = "set the source directory to watch and recompile on the fly.")
     private String watchDirectory = null;
 
@@ -46,10 +56,40 @@ public class Service {
 
     @Option(name = "-x", usage = "clear the cache at startup")
     private boolean clearCache = false;
+
+    @Option(name = "-t", usage = "set the number of threads used for compiling, default is the number of cores")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "-f", usage = "validate the cache with the content of the files instead of the timestamps only")
+    private boolean fingerprints = false;
+
+    @Option(name = "-w", usage = "set the size of the in-memory cache, roughly the number of cached items and paths plus the generated content in KB")
+    private long memoryWeight = 100_000;
+
+    @Option(name = "-k", usage = "remove unused entries from the cache and compact it at startup")
+    private boolean compact = false;
+
+    @Option(name = "-i", usage = "set the interval in minutes to compact the cache when running as daemon, 0 disables it, default is one day")
+    private long compactInterval = 24 * 60;
+
+    @Option(name = "-m", usage = "open the cache with memory mapped files")
+    private boolean mmap = false;
+
+    @Option(name = "-a", usage = "set the size in MB the memory mapped cache file grows at once, default is 1")
+    private int allocateIncrement = 1;
+
+    @Option(name = "-d", usage = "do not delete unused generated files, only list them")
+    private boolean dryRun = false;
+
+    @Option(name = "-j", usage = "set the number of unused generated files deleted at the same time, default is 4")
+    private int deleteThreads = 4;
     
     private Cache cache;
+    private ConcurrentMap<String, CacheEntry> store;
+    private final CacheEntrySerializer cacheEntrySerializer = new CacheEntrySerializer();
     private static Service service;
     private DB db;
+    private Manifest manifest;
 
     private int runCounter = 0;
 
@@ -57,6 +97,7 @@ public class Service {
         service = new Service()
                 .addShutdownHook()
                 .cmdLine(args)
+                .initCompiler()
                 .initCache()
                 .doMain();
     }
@@ -66,17 +107,97 @@ public class Service {
         outputDirectory = Files.createTempDirectory("xdocc").toString();
     }
 
-    private Service initCache() {
-        db = DBMaker.fileDB(cacheDirectory).make();
-        @SuppressWarnings("unchecked")
-		ConcurrentMap<String, CacheEntry> map = db.hashMap("map", Serializer.STRING, new SerializerJava()).createOrOpen();
+    private Service initCompiler() {
+        //work stealing pool, idle threads take over the files and directories queued by busy threads
+        executorServiceCompiler = new ForkJoinPool(Math.max(1, threads),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        executorServiceDelete = Executors.newFixedThreadPool(Math.max(1, deleteThreads));
+        return this;
+    }
+
+    private Service initCache() throws IOException {
+        ConcurrentMap<String, CacheEntry> map;
+        try {
+            map = openCache();
+        } catch (DBException e) {
+            //the cache can be built again, e.g. if the process was killed while writing to it
+            LOG.warn("cannot open the cache {}, starting with an empty cache", cacheDirectory, e);
+            if(db != null) {
+                try {
+                    db.close();
+                } catch (RuntimeException e1) {
+                    LOG.debug("cannot close the broken cache", e1);
+                }
+            }
+            moveCacheAside();
+            map = openCache();
+        }
         if(clearCache) {
             map.clear();
+            manifest.clear();
+            db.commit();
         }
-        this.cache = new Cache(map);
+        this.store = map;
+        this.cache = new Cache(map, fingerprints, memoryWeight);
         return this;
     }
 
+    private ConcurrentMap<String, CacheEntry> openCache() {
+        db = null;
+        DBMaker.Maker maker = DBMaker.fileDB(cacheDirectory).transactionEnable();
+        if(mmap) {
+            maker = maker.fileMmapEnableIfSupported()
+                    .fileMmapPreclearDisable()
+                    //unmap the file on close, otherwise it stays mapped until gc
+                    .cleanerHackEnable()
+                    .allocateIncrement(Math.max(1, allocateIncrement) * 1024L * 1024L);
+        }
+        db = maker.make();
+        manifest = new Manifest(db.hashMap("manifest-sources", Serializer.STRING, Serializer.STRING).createOrOpen(),
+                db.hashMap("manifest-hashes", Serializer.STRING, Serializer.STRING).createOrOpen(),
+                db.hashMap("manifest-modified", Serializer.STRING, Serializer.LONG).createOrOpen());
+        return db.hashMap("map", Serializer.STRING, cacheEntrySerializer).createOrOpen();
+    }
+
+    /**
+     * Renames the cache file and its write ahead logs (name.wal.0, name.t, ...), so that a broken cache can be
+     * inspected
+     */
+    private void moveCacheAside() throws IOException {
+        final Path cacheFile = Paths.get(cacheDirectory);
+        final String name = cacheFile.getFileName().toString();
+        final String suffix = ".broken-" + System.currentTimeMillis();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(cacheFile.toAbsolutePath().getParent())) {
+            for (Path p : ds) {
+                if (!isCacheFile(name, p.getFileName().toString())) {
+                    continue;
+                }
+                LOG.info("move {} aside", p);
+                Files.move(p, p.resolveSibling(p.getFileName() + suffix));
+            }
+        }
+    }
+
+    /**
+     * @return True for the files MapDB creates for the cache file name: the file itself, its write ahead logs
+     * name.wal.N and the temporary file name.t
+     */
+    private static boolean isCacheFile(String name, String fileName) {
+        if (fileName.equals(name) || fileName.equals(name + ".t")) {
+            return true;
+        }
+        final String wal = name + ".wal.";
+        if (!fileName.startsWith(wal) || fileName.length() == wal.length()) {
+            return false;
+        }
+        for (int i = wal.length(); i < fileName.length(); i++) {
+            if (!Character.isDigit(fileName.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public Service cmdLine(String[] args) {
         CmdLineParser parser = new CmdLineParser(this);
         try {
@@ -99,57 +220,204 @@ public class Service {
         
         final CountDownLatch startAfterFirstRun = new CountDownLatch(1);
         final Site site = new Site(Paths.get(watchDirectory), Paths.get(outputDirectory));
+        cacheEntrySerializer.site(site);
+        site.manifest(manifest);
         final boolean isDaemon = !runOnce;
 
         if (isDaemon) {
-            startWatch(site, () -> {
+            startWatch(site, changedPaths -> {
                 try {
-                    LOG.debug("file changed");
+                    LOG.debug("files changed: {}", changedPaths);
                     startAfterFirstRun.await();
+                    buildLock.lock();
+                    XPath.invalidate(site, changedPaths);
                     LOG.info("compiling start: {}", site);
                     //load global navigation, otherwise when we change the name of a navigation
                     //item or we rename, then the old name will be visible
+                    final Link navigation = site.globalNavigation();
                     site.reloadGlobalNavigation();
                     site.reloadTemplates();
                     final long start = System.currentTimeMillis();
-                    Map<String, Integer> filesCounter = Collections.synchronizedMap(Files.walk(Paths.get(site.
-                            generated())).collect(Collectors.toMap(p -> p.toString(), p -> 0)));
-                    compile(site, filesCounter, cache).get();
-
-                    deleteUnusedFiles(site, filesCounter);
+                    final FilesCounter filesCounter;
+                    final DependencyGraph.ChangeSet changeSet;
+                    if (navigation.equals(site.globalNavigation())
+                            && !dependencies.requiresFullCompile(site, changedPaths)) {
+                        changeSet = dependencies.changeSet(site, changedPaths, cache);
+                        for (String dependent : changeSet.dependents()) {
+                            cache.invalidate(dependent);
+                        }
+                        filesCounter = changeSet.filesCounter();
+                    } else {
+                        LOG.debug("compile all files");
+                        changeSet = null;
+                        filesCounter = generatedFiles(site);
+                    }
+                    compile(site, filesCounter, cache, changeSet).get();
+
+                    deleteUnusedFiles(filesCounter);
+                    manifest.update(filesCounter);
+                    commitCache();
                     postProcessing(site);
                     runCounter ++;
 
                     LOG.info("compiling done in {} ms of {}", (System.currentTimeMillis() - start), site);
+                    LOG.info("cache {}", cache.stats());
+                    logWrites();
                 } catch (Throwable t) {
+                    rollbackCache();
                     LOG.error("file changed, but could not compile", t);
+                } finally {
+                    if (buildLock.isHeldByCurrentThread()) {
+                        buildLock.unlock();
+                    }
                 }
             });
         }
+        if (compact) {
+            buildLock.lock();
+            try {
+                compactCache();
+            } finally {
+                buildLock.unlock();
+            }
+        }
         LOG.info("compiling start: {}", site);
         final long start = System.currentTimeMillis();
-        Map<String, Integer> filesCounter = Collections.synchronizedMap(Files.walk(Paths.get(site.generated())).collect(
-                Collectors.toMap(p -> p.toString(), p -> 0)));
+        FilesCounter filesCounter = generatedFiles(site);
         compile(site, filesCounter, cache).get();
-        deleteUnusedFiles(site, filesCounter);
+        deleteUnusedFiles(filesCounter);
+        manifest.update(filesCounter);
+        commitCache();
         postProcessing(site);
         runCounter ++;
 
         LOG.info("compiling done in {} ms of {}", (System.currentTimeMillis() - start), site);
+        LOG.info("cache {}", cache.stats());
+        logWrites();
         if (isDaemon) {
             startAfterFirstRun.countDown();
+            if (compactInterval > 0) {
+                compactService = Executors.newSingleThreadScheduledExecutor();
+                compactService.scheduleWithFixedDelay(() -> {
+                    buildLock.lock();
+                    try {
+                        compactCache();
+                    } catch (Throwable t) {
+                        LOG.error("could not compact the cache", t);
+                    } finally {
+                        buildLock.unlock();
+                    }
+                }, compactInterval, compactInterval, TimeUnit.MINUTES);
+            }
         } else {
             shutdown();
         }
         return this;
     }
 
-    private void deleteUnusedFiles(Site site, Map<String, Integer> filesCounter) {
-        filesCounter.entrySet().stream().
-                sorted((f1, f2) -> f2.getKey().compareTo(f1.getKey())).filter(f1 -> f1.
-                getValue() <= 0 && Utils.isChild(Paths.get(f1.getKey()), Paths.get(site.generated()))).forEach(
-                f1 -> {try {Files.delete(Paths.get(f1.getKey()));} catch (IOException ex) {LOG.error("cannot delete", ex);}});
+    /**
+     * @return All generated files with a count of 0, from the manifest if there is one, otherwise from the
+     * generated directory
+     */
+    private FilesCounter generatedFiles(Site site) throws IOException {
+        if (!manifest.isEmpty()) {
+            return manifest.filesCounter(site);
+        }
+        LOG.debug("no manifest, walk the generated directory");
+        return new FilesCounter(site).addTree(Paths.get(site.generated()));
+    }
+
+    private static final int DELETE_BATCH = 64;
+
+    /**
+     * Deletes the unused files in batches on the delete threads, then the directories that became empty, the
+     * deepest first
+     */
+    private void deleteUnusedFiles(FilesCounter filesCounter) {
+        final long start = System.currentTimeMillis();
+        final List<String> files = new ArrayList<>(filesCounter.unusedFiles());
+        final List<String> directories = filesCounter.unusedDirectories();
+        if (dryRun) {
+            LOG.info("dry run, {} unused files and {} unused directories are not deleted", files.size(),
+                    directories.size());
+            files.forEach(f -> LOG.info("unused file {}", f));
+            directories.forEach(d -> LOG.info("unused directory {}", d));
+            return;
+        }
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < files.size(); i += DELETE_BATCH) {
+            final List<String> batch = files.subList(i, Math.min(i + DELETE_BATCH, files.size()));
+            futures.add(CompletableFuture.runAsync(() -> batch.forEach(Service::delete), executorServiceDelete));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        directories.forEach(Service::delete);
+        LOG.debug("deleted {} unused files and {} unused directories in {} ms", files.size(), directories.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private static void delete(String path) {
+        try {
+            Files.deleteIfExists(Paths.get(path));
+        } catch (IOException ex) {
+            LOG.error("cannot delete", ex);
+        }
+    }
+
+    /**
+     * Writes all the cache entries of a build in one transaction, an interrupted build does not change the cache
+     */
+    private void commitCache() {
+        try {
+            final int written = cache.flush();
+            final int files = manifest.flush();
+            db.commit();
+            LOG.debug("committed {} cache entries and {} generated files", written, files);
+        } catch (RuntimeException e) {
+            db.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Discards everything a failed build changed in the cache, the pending entries and what was already
+     * written to the store
+     */
+    private void rollbackCache() {
+        cache.rollback();
+        manifest.rollback();
+        try {
+            db.rollback();
+        } catch (RuntimeException e) {
+            LOG.error("cannot roll back the cache", e);
+        }
+    }
 
+    /**
+     * Removes the entries of deleted sources and duplicate generated files and compacts the cache file
+     */
+    private void compactCache() throws IOException {
+        final Path cacheFile = Paths.get(cacheDirectory);
+        final long before = Files.exists(cacheFile) ? Files.size(cacheFile) : 0;
+        final int removed = cache.collectGarbage(key -> cacheEntrySerializer.withoutItems(() -> store.get(key)));
+        commitCache();
+        //the store with transactions (write ahead log) does not compact its file
+        if (db.getStore() instanceof StoreWAL) {
+            LOG.info("the cache store with transactions is not compacted, only unused entries were removed");
+        } else {
+            try {
+                db.getStore().compact();
+            } catch (UnsupportedOperationException e) {
+                LOG.info("the cache store cannot be compacted, only unused entries were removed");
+            }
+        }
+        final long after = Files.exists(cacheFile) ? Files.size(cacheFile) : 0;
+        //the size may grow, e.g. with the removed entries in the write ahead log
+        LOG.info("cache compacted: {} entries removed, the file size changed by {} bytes", removed, after - before);
+    }
+
+    private void logWrites() {
+        LOG.info("{} generated files written, {} unchanged files not written", Utils.writes(), Utils.skippedWrites());
+        Utils.resetWrites();
     }
 
     private void postProcessing(Site site) throws IOException, InterruptedException {
@@ -191,14 +459,33 @@ public class Service {
         for (RecursiveWatcherService recursiveWatcherService : watchServices) {
             recursiveWatcherService.shutdown();
         }
-        executorServiceCompiler.shutdown();
+        if(compactService != null) {
+            compactService.shutdown();
+        }
+        if(executorServiceCompiler != null) {
+            executorServiceCompiler.shutdown();
+        }
+        if(executorServiceDelete != null) {
+            executorServiceDelete.shutdown();
+        }
         if(db!=null) {
             db.close();
         }
     }
 
-    public CompletableFuture<XItem> compile(Site site, Map<String, Integer> filesCounter, Cache cache) throws IOException, InterruptedException, ExecutionException {
-        Compiler c = new Compiler(executorServiceCompiler, site, filesCounter, cache);
+    public CompletableFuture<XItem> compile(Site site, FilesCounter filesCounter, Cache cache) throws IOException, InterruptedException, ExecutionException {
+        return compile(site, filesCounter, cache, null);
+    }
+
+    public CompletableFuture<XItem> compile(Site site, FilesCounter filesCounter, Cache cache,
+            DependencyGraph.ChangeSet changeSet) throws IOException, InterruptedException, ExecutionException {
+        if (changeSet == null) {
+            //a full compile, e.g. a run after another run in the same JVM, the daemon invalidates the changes
+            XPath.clearMemos(site);
+        }
+        site.clearIndexes();
+        cache.updateGeneration(site);
+        Compiler c = new Compiler(executorServiceCompiler, site, filesCounter, cache, dependencies, changeSet);
         return c.compile(Paths.get(site.source()));
     }
 }
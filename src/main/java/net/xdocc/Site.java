@@ -16,10 +16,14 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Accessors(chain = true, fluent = true)
 public class Site implements Serializable {
@@ -39,7 +43,26 @@ public class Site implements Serializable {
     transient private Configuration freemakerEngine;
     transient private List<Handler> handlers;
 
-    final private Map<String, TemplateBean> templates = new HashMap<>();
+    /**
+     * the generated files of the last builds, null if they are not known
+     */
+    @Getter @Setter
+    transient private Manifest manifest;
+
+    /**
+     * the navigation of the directories in this build, shared by all their items
+     */
+    transient private Map<String, Navigation> navigations = new ConcurrentHashMap<>();
+    transient private Map<String, List<Link>> breadcrumbs = new ConcurrentHashMap<>();
+
+    /**
+     * the number of files and the size of the paths in this build, a path is only read once
+     */
+    transient private Map<String, Long> filesCounts = new ConcurrentHashMap<>();
+    transient private Map<String, Long> fileSizes = new ConcurrentHashMap<>();
+    transient private AtomicLong indexVersion = new AtomicLong();
+
+    final private Map<String, TemplateBean> templates = new ConcurrentHashMap<>();
 
     public Site(Path source, Path generated) throws IOException {
         this.source = source.toString();
@@ -58,6 +81,18 @@ public class Site implements Serializable {
         if(this.freemakerEngine == null) {
             this.freemakerEngine = site.freemakerEngine();
         }
+        if(this.manifest == null) {
+            this.manifest = site.manifest();
+        }
+        if(this.navigations == null) {
+            this.navigations = site.navigations;
+            this.breadcrumbs = site.breadcrumbs;
+        }
+        if(this.filesCounts == null) {
+            this.filesCounts = site.filesCounts;
+            this.fileSizes = site.fileSizes;
+            this.indexVersion = site.indexVersion;
+        }
     }
     
     public void reloadGlobalNavigation() throws IOException {
@@ -66,7 +101,27 @@ public class Site implements Serializable {
     
     public void reloadTemplates() throws IOException {
     	Path p=Paths.get(source).resolve(".templates");
+    	final Map<String, TemplateBean> old = new HashMap<>(templates);
     	loadTemplates(p);
+    	if(!sameTemplates(old)) {
+    		LOG.debug("templates changed, parse them again");
+    		freemakerEngine.clearTemplateCache();
+    	}
+    }
+
+    private boolean sameTemplates(Map<String, TemplateBean> old) {
+        if(!old.keySet().equals(templates.keySet())) {
+            return false;
+        }
+        for(Map.Entry<String, TemplateBean> entry:templates.entrySet()) {
+            TemplateBean oldBean = old.get(entry.getKey());
+            TemplateBean newBean = entry.getValue();
+            if(oldBean.internal() != newBean.internal() || oldBean.timestamp() != newBean.timestamp()
+                    || oldBean.filesize() != newBean.filesize() || !oldBean.file().equals(newBean.file())) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public List<Handler> handlers() {
@@ -101,7 +156,9 @@ public class Site implements Serializable {
 
         if (templateBean.isDirty()) {
             templateBean = loadTemplate(Paths.get(templateBean.file()));
-            templates.put(templateBean.file(), templateBean);
+            templates.put(name + ".ftl", templateBean);
+            //a template can include other templates, parse all of them again
+            freemakerEngine.clearTemplateCache();
         }
         return templateBean;
     }
@@ -137,13 +194,19 @@ public class Site implements Serializable {
             LOG.warn("could not find the directory: {}", templateDirectory);
             cfg.setTemplateLoader(new MultiTemplateLoader(new TemplateLoader[]{stl}));
         }
-        cfg.setCacheStorage(new NullCacheStorage());
+        //templates are parsed once, the cache is cleared if a template changes
+        cfg.setCacheStorage(new StrongCacheStorage());
+        cfg.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
         cfg.setObjectWrapper(new DefaultObjectWrapper(Configuration.VERSION_2_3_28));
         return cfg;
     }
 
+    /**
+     * Replaces the templates without clearing the map, a template that is rendered at the same time is
+     * always found
+     */
     private void loadTemplates(Path templatePath) throws IOException {
-    	templates.clear();
+    	final Map<String, TemplateBean> loaded = new HashMap<>();
     	if(Files.exists(templatePath)) {
     	    try (DirectoryStream<Path> ds = Files.newDirectoryStream(templatePath)) {
                 for (Path p : ds) {
@@ -154,17 +217,19 @@ public class Site implements Serializable {
                         continue;
                     }
                     TemplateBean templateBean = loadTemplate(p);
-                    templates.put(p.getFileName().toString(), templateBean);
+                    loaded.put(p.getFileName().toString(), templateBean);
                 }
             }
         }
         for(Map.Entry<String,String> entry:defaults().entrySet()) {
-            if(!templates.containsKey(entry.getKey())) {
+            if(!loaded.containsKey(entry.getKey())) {
                 TemplateBean templateBean = new TemplateBean(this)
                         .file(entry.getKey()).internal(true);
-                templates.put(entry.getKey(), templateBean);
+                loaded.put(entry.getKey(), templateBean);
             }
         }
+        templates.putAll(loaded);
+        templates.keySet().retainAll(loaded.keySet());
     }
 
     private TemplateBean loadTemplate(Path p) throws IOException {
@@ -184,6 +249,124 @@ public class Site implements Serializable {
         return loadNavigation(XPath.get(this, p));
     }
     
+    /**
+     * The navigation of an item, it is loaded once per directory and build
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static class Navigation {
+        final private XPath directory;
+        final private List<Link> localChildren;
+        final private boolean isNavigation;
+        final private List<Link> breadcrumb;
+        final private Link current;
+
+        private Navigation(XPath directory, List<Link> localChildren, boolean isNavigation,
+                List<Link> breadcrumb, Link current) {
+            this.directory = directory;
+            this.localChildren = localChildren;
+            this.isNavigation = isNavigation;
+            this.breadcrumb = breadcrumb;
+            this.current = current;
+        }
+    }
+
+    public Navigation navigation(XPath xPath) {
+        final XPath directory = xPath.isDirectory() || xPath.getParent() == null ? xPath : xPath.getParent();
+        return navigations.computeIfAbsent(directory.path(), key -> loadNavigationIndex(directory));
+    }
+
+    /**
+     * Call before a build, the directories may have changed since the last build
+     */
+    public void clearIndexes() {
+        navigations.clear();
+        breadcrumbs.clear();
+        filesCounts.clear();
+        fileSizes.clear();
+        indexVersion.incrementAndGet();
+    }
+
+    /**
+     * @return The version of the indexes, content that shows a number of files or a file size is only valid
+     * with the same version
+     */
+    public long indexVersion() {
+        return indexVersion.get();
+    }
+
+    /**
+     * @return The number of files and directories of the path including itself, the same as counting
+     * Files.walk(path). The counts of the subdirectories are reused.
+     */
+    public long filesCount(Path path) throws IOException {
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            return 1;
+        }
+        final Long cached = filesCounts.get(path.toString());
+        if (cached != null) {
+            return cached;
+        }
+        long count = 1;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
+            for (Path child : ds) {
+                count += filesCount(child);
+            }
+        }
+        filesCounts.putIfAbsent(path.toString(), count);
+        return count;
+    }
+
+    /**
+     * @return The size of the file, 0 for a directory. As with the number of files, links are not followed.
+     */
+    public long fileSize(Path path) throws IOException {
+        final Long cached = fileSizes.get(path.toString());
+        if (cached != null) {
+            return cached;
+        }
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+        final long size = attributes.isDirectory() ? 0 : attributes.size();
+        fileSizes.putIfAbsent(path.toString(), size);
+        return size;
+    }
+
+    private Navigation loadNavigationIndex(XPath directory) {
+        final Link local = loadNavigation(directory);
+        Link current = null;
+        if (directory.isNavigation()) {
+            current = Utils.find(directory, globalNavigation);
+            if (current == null) {
+                current = Utils.find(directory, local);
+            }
+        }
+        return new Navigation(directory, Collections.unmodifiableList(local.getChildren()),
+                Utils.isChild(globalNavigation, local), breadcrumb(directory), current);
+    }
+
+    /**
+     * @return The links from the root to the directory, the root excluded. The list of the parent directory
+     * is reused.
+     */
+    private List<Link> breadcrumb(XPath directory) {
+        final List<Link> breadcrumb = breadcrumbs.get(directory.path());
+        if (breadcrumb != null) {
+            return breadcrumb;
+        }
+        final Path path = Paths.get(directory.path());
+        if (path.equals(Paths.get(source)) || path.getParent() == null) {
+            return Collections.emptyList();
+        }
+        final List<Link> parent = breadcrumb(XPath.get(this, path.getParent()));
+        final List<Link> links = new ArrayList<>(parent.size() + 1);
+        links.addAll(parent);
+        links.add(new Link(directory, parent.isEmpty() ? null : parent.get(parent.size() - 1)));
+        final List<Link> created = Collections.unmodifiableList(links);
+        final List<Link> previous = breadcrumbs.putIfAbsent(directory.path(), created);
+        return previous == null ? created : previous;
+    }
+
     public Link loadLocalNavigation(XPath source) /*throws IOException*/ {
         if(source.isDirectory()) {
             return loadNavigation(source);
@@ -52,23 +52,22 @@ public class TemplateBean implements Serializable {
         }
     }
 
+    /**
+     * @return The parsed template, it can be used by several threads at the same time
+     */
     public Template template() {
-        final Template template;
-        synchronized (Utils.lock) {
+        try {
+            Path p = Paths.get(file);
+            return site.freemakerEngine().getTemplate(p.getFileName().toString());
+        } catch (Throwable e) {
+            e.printStackTrace();
+            Path p = Paths.get(file);
             try {
-                Path p = Paths.get(file);
-                template = site.freemakerEngine().getTemplate(p.getFileName().toString());
-                return template;
-            } catch (Throwable e) {
-                e.printStackTrace();
-                Path p = Paths.get(file);
-                try {
-                    site.freemakerEngine().getTemplate(p.getFileName().toString());
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
-
+                site.freemakerEngine().getTemplate(p.getFileName().toString());
+            } catch (IOException e1) {
+                e1.printStackTrace();
             }
+
         }
         return null;
     }
@@ -1,21 +1,31 @@
 package net.xdocc;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.MoreFiles;
+import freemarker.core.Environment;
+import freemarker.template.Template;
+import freemarker.template.TemplateScalarModel;
 import freemarker.template.TemplateException;
+import org.apache.commons.lang3.time.FastDateFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.apache.commons.text.StringEscapeUtils.escapeHtml4;
 
 public class Utils {
 
     private static final Logger LOG = LoggerFactory.getLogger(Utils.class);
-    private static Map<Path, Path> created = new HashMap<Path, Path>();
+    private static Map<Path, Path> created = new ConcurrentHashMap<Path, Path>();
 
     private static XItem adjustPath(XItem doc, String minusPath) {
         adjustPath0(doc, minusPath);
@@ -91,21 +101,6 @@ public class Utils {
         return retVal;
     }
 
-    public static void increase(Map<String, Integer> filesCounter, Collection<Path> listPaths) {
-        for (Path path : listPaths) {
-            synchronized (filesCounter) {
-                Integer i = filesCounter.get(path.toString());
-                if (i == null) {
-                    i = 1;
-                } else {
-                    i++;
-                }
-
-                filesCounter.put(path.toString(), i);
-            }
-        }
-    }
-
     public static void decrease(Map<Path, Integer> filesCounter, Collection<Path> listPaths) {
         for (Path path : listPaths) {
             synchronized (filesCounter) {
@@ -187,15 +182,6 @@ public class Utils {
         return sb.toString();
     }
 
-    public static String[] createURLSplit(Path source, XPath xPath) {
-        List<String> paths = new ArrayList<>();
-        while (!source.equals(Paths.get(xPath.path()))) {
-            paths.add(0, xPath.url());
-            xPath = XPath.get(xPath.site(), Paths.get(xPath.path()).getParent());
-        }
-        return paths.toArray(new String[0]);
-    }
-
     public static String createURL(String[] paths) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < paths.length; i++) {
@@ -284,11 +270,55 @@ public class Utils {
 
     public static void write(String html, XPath xPath, Path generatedFile)
             throws TemplateException, IOException {
+        write(xPath, generatedFile, out -> out.write(html));
+    }
+
+    /**
+     * Generates the page directly into the file
+     */
+    public static void write(XItem page, XPath xPath, Path generatedFile)
+            throws TemplateException, IOException {
+        write(xPath, generatedFile, page::writeContent);
+    }
+
+    private static final LongAdder writes = new LongAdder();
+    private static final LongAdder skippedWrites = new LongAdder();
+
+    /**
+     * @return The number of generated files that were written since the last reset
+     */
+    public static long writes() {
+        return writes.sum();
+    }
+
+    /**
+     * @return The number of generated files that were not written since the last reset, as the content was
+     * the same
+     */
+    public static long skippedWrites() {
+        return skippedWrites.sum();
+    }
+
+    public static void resetWrites() {
+        writes.reset();
+        skippedWrites.reset();
+    }
+
+    interface Content {
+        void write(Writer out) throws TemplateException, IOException;
+    }
+
+    /**
+     * The content is written to a temporary file next to the generated file, which then replaces the
+     * generated file. A reader sees either the old or the new file.
+     */
+    private static void write(XPath xPath, Path generatedFile, Content content)
+            throws TemplateException, IOException {
         //create generated file and paths if not done yet
         createDirectories(generatedFile);
-        Path alreadyGeneratedSource = created.get(generatedFile);
+        Path alreadyGeneratedSource = created.putIfAbsent(generatedFile, Paths.get(xPath.path()));
         if (alreadyGeneratedSource == null) {
-            created.put(generatedFile, Paths.get(xPath.path()));
+            LOG.debug("creating {}", generatedFile);
         } else if (!alreadyGeneratedSource.equals(Paths.get(xPath.path()))) {
             LOG.warn("create " + generatedFile
                     + ", but it was already created by "
@@ -299,8 +329,42 @@ public class Utils {
 
         System.err.println("writing " + xPath + " for " + generatedFile);
 
-        try (FileWriter fw = new FileWriter(generatedFile.toFile())) {
-            fw.write(html);
+        //not Files.createTempFile, the file would only be readable by us
+        Path tmp = generatedFile.resolveSibling("." + generatedFile.getFileName() + "."
+                + Thread.currentThread().getId() + "-" + System.nanoTime() + ".tmp");
+        try {
+            final HashCode hash;
+            try (HashingOutputStream hashing = new HashingOutputStream(Hashing.murmur3_128(),
+                    Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+                    Writer out = new BufferedWriter(new OutputStreamWriter(hashing, StandardCharsets.UTF_8))) {
+                content.write(out);
+                out.flush();
+                hash = hashing.hash();
+            }
+            final Manifest manifest = xPath.site().manifest();
+            //keep the file with its timestamp if nothing changed, so that it is not copied or uploaded again,
+            //the hash of the manifest saves reading the file if the file was not touched since
+            if (Files.isRegularFile(generatedFile) && Files.size(generatedFile) == Files.size(tmp)
+                    && ((manifest != null && manifest.hasHash(generatedFile, hash.toString()))
+                    || hash.equals(MoreFiles.asByteSource(generatedFile).hash(Hashing.murmur3_128())))) {
+                LOG.debug("{} did not change", generatedFile);
+                skippedWrites.increment();
+                if (manifest != null) {
+                    manifest.written(generatedFile, Paths.get(xPath.path()), hash.toString());
+                }
+                return;
+            }
+            writes.increment();
+            try {
+                Files.move(tmp, generatedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, generatedFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (manifest != null) {
+                manifest.written(generatedFile, Paths.get(xPath.path()), hash.toString());
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
         }
     }
 
@@ -350,47 +414,61 @@ public class Utils {
         return sb.append("</table>").toString();
     }
 
-    public static Object lock = new Object();
+    /**
+     * The debug table is only created if the template uses ${debug}. It belongs to one environment, which is
+     * used by one thread only.
+     */
+    private static class DebugModel implements TemplateScalarModel {
+        private final Map<String, Object> model;
+        private String debug;
+
+        private DebugModel(Map<String, Object> model) {
+            this.model = model;
+        }
+
+        @Override
+        public String getAsString() {
+            if (debug == null) {
+                debug = getDebug(model);
+            }
+            return debug;
+        }
+    }
 
     public static String applyTemplate(Site site, TemplateBean templateText,
                                        Map<String, Object> model) throws TemplateException, IOException {
-        model.put(XItem.DEBUG, getDebug(model));
         StringWriter sw = new StringWriter();
-        synchronized (lock) {
-
-            /*templateText
-                    .template()
-                    .getConfiguration()
-                    .setDirectoryForTemplateLoading(site.templatePath().toFile());
-            templateText.template().getConfiguration()
-                    .setCacheStorage(new NullCacheStorage());
-            templateText
-                    .template()
-                    .getConfiguration()
-                    .setTemplateLoader(
-                            new FileTemplateLoader(site.templatePath().toFile()));*/
-            try {
-                templateText.template().process(model, sw);
-            } catch (Throwable e) {
-                LOG.debug("available data for template {}:", templateText.file(), e);
-                for (Map.Entry<String, Object> entry : model.entrySet()) {
-                    if(entry.getValue() != null) {
-                        String val = entry.getValue().toString();
-                        if(val.length() > 60) {
-                            val = val.substring(0, 60) + "...";
-                        }
-                        val = val.replace("\n", "");
-                        LOG.debug("key:[{}]=[{}]", entry.getKey(), val);
-                    } else {
-                        LOG.debug("key:[{}]=null", entry.getKey());
+        applyTemplate(site, templateText, model, sw);
+        sw.flush();
+        return sw.getBuffer().toString();
+    }
+
+    public static void applyTemplate(Site site, TemplateBean templateText,
+                                     Map<String, Object> model, Writer out) throws TemplateException, IOException {
+        try {
+            //the template can be shared between threads, the environment and the wrapped model are created
+            //for this call. The same model can be rendered by several threads, so we do not add debug to it
+            final Template template = templateText.template();
+            final Object root = model instanceof XModel
+                    ? new XModelHash((XModel) model, template.getObjectWrapper()) : model;
+            Environment env = template.createProcessingEnvironment(root, out);
+            env.setGlobalVariable(XItem.DEBUG, new DebugModel(model));
+            env.process();
+        } catch (Throwable e) {
+            LOG.debug("available data for template {}:", templateText.file(), e);
+            for (Map.Entry<String, Object> entry : model.entrySet()) {
+                if(entry.getValue() != null) {
+                    String val = entry.getValue().toString();
+                    if(val.length() > 60) {
+                        val = val.substring(0, 60) + "...";
                     }
+                    val = val.replace("\n", "");
+                    LOG.debug("key:[{}]=[{}]", entry.getKey(), val);
+                } else {
+                    LOG.debug("key:[{}]=null", entry.getKey());
                 }
             }
-
-            sw.flush();
-            return sw.getBuffer().toString();
         }
-
     }
 
     public static Link find(XPath xPath, Link navigation) {
@@ -487,51 +565,76 @@ public class Utils {
         return results;
     }
 
+    private static final FastDateFormat POST_DATE_FORMAT = FastDateFormat.getInstance("dd.MM.yyyy");
+
     /**
-     * Returns a list of links that goes to the root. This is typically used for breadcrumbs.
-     *
-     * @return the list of links
+     * Replaces ${key} with the value of the model in one pass. Keys that are not in the model stay as they
+     * are.
      */
-    public static List<Link> linkToRoot(Path root, XPath xPath) {
-        // if we are root, return an empty list
-        if (xPath == null) {
-            return Collections.emptyList();
-        }
-        if (!xPath.isDirectory()) {
-            xPath = xPath.getParent();
+    public static String postApplyTemplate(String html,
+                                           Map<String, Object> model, String... keys) {
+        final String[] values = postApplyValues(model, keys);
+        if (values == null) {
+            return html;
+        }
+        int start = html.indexOf("${");
+        if (start < 0) {
+            return html;
+        }
+        final StringBuilder sb = new StringBuilder(html.length() + 64);
+        int last = 0;
+        while (start >= 0) {
+            final int key = postApplyKey(html, start + 2, keys, values);
+            if (key < 0) {
+                start = html.indexOf("${", start + 2);
+                continue;
+            }
+            sb.append(html, last, start).append(values[key]);
+            last = start + 2 + keys[key].length() + 1;
+            start = html.indexOf("${", last);
         }
-        List<XPath> xPaths = new ArrayList<>();
-        while (!root.equals(Paths.get(xPath.path()))) {
-            xPaths.add(0, xPath);
-            xPath = XPath.get(xPath.site(), Paths.get(xPath.path()).getParent());
+        if (last == 0) {
+            return html;
         }
+        return sb.append(html, last, html.length()).toString();
+    }
 
-        List<Link> retVal = new ArrayList<>();
-        Link old = null;
-        for (XPath xPath2 : xPaths) {
-            Link link = new Link(xPath2, old);
-            retVal.add(link);
-            old = link;
+    /**
+     * @return The values of the keys, or null if none of the keys is in the model
+     */
+    static String[] postApplyValues(Map<String, Object> model, String... keys) {
+        final String[] values = new String[keys.length];
+        boolean found = false;
+        for (int i = 0; i < keys.length; i++) {
+            final Object value = model.get(keys[i]);
+            if (value == null) {
+                continue;
+            }
+            values[i] = value instanceof Date ? POST_DATE_FORMAT.format((Date) value) : value.toString();
+            found = true;
         }
-        return retVal;
+        return found ? values : null;
     }
 
-    public static String postApplyTemplate(String html,
-                                           Map<String, Object> model, String... string) {
-        for (String key : string) {
-            if (!model.containsKey(key) || model.get(key) == null) {
-                //LOG.debug("cannot find key {} in html{}", key, html);
+    /**
+     * @return The index of the key that starts at offset and is followed by }, or -1
+     */
+    static int postApplyKey(CharSequence text, int offset, String[] keys, String[] values) {
+        for (int i = 0; i < keys.length; i++) {
+            final String key = keys[i];
+            final int end = offset + key.length();
+            if (values[i] == null || end >= text.length() || text.charAt(end) != '}') {
                 continue;
             }
-            // TODO: regexp would be better
-            if(model.get(key) instanceof Date) {
-                SimpleDateFormat dt1 = new SimpleDateFormat("dd.MM.yyyy");
-                html = html.replace("${" + key + "}", dt1.format((Date) model.get(key)));
-            } else {
-                html = html.replace("${" + key + "}", model.get(key).toString());
+            boolean match = true;
+            for (int j = 0; j < key.length() && match; j++) {
+                match = text.charAt(offset + j) == key.charAt(j);
+            }
+            if (match) {
+                return i;
             }
         }
-        return html;
+        return -1;
     }
 
     /**
@@ -591,7 +694,7 @@ public class Utils {
         page = Utils.adjustPath(page, minusPath);
         page = Utils.adjustPathToRoot(page, minusPathToRoot);
 
-        Utils.write(page.getContent(), xPath, generatedFile);
+        Utils.write(page, xPath, generatedFile);
     }
 
     public static void createDirectories(Path path) throws IOException {
@@ -637,7 +740,7 @@ public class Utils {
         page = Utils.adjustPath(page, minusPath);
         page = Utils.adjustPathToRoot(page, minusPathToRoot);
 
-        Utils.write(page.getContent(), xPath, generatedFile);
+        Utils.write(page, xPath, generatedFile);
     }
 
     public static String executeAndOutput(ProcessBuilder pb) throws IOException,
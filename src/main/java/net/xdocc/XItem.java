@@ -1,5 +1,6 @@
 package net.xdocc;
 
+import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import lombok.Getter;
 import lombok.Setter;
@@ -9,8 +10,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.io.Serializable;
-import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -71,7 +72,7 @@ public class XItem implements Comparable<XItem>, Serializable {
         this.generator = documentGenerator;
         this.xPath = xPath;
         initXPath();
-        initNavigation();
+        initNavigation(xPath.site().navigation(xPath));
         initDepth();
     }
 
@@ -80,6 +81,37 @@ public class XItem implements Comparable<XItem>, Serializable {
         this.xPath = item.xPath;
     }
 
+    /**
+     * @return A copy of this item and all its items. The paths of the copy can be adjusted without changing
+     * the original.
+     */
+    public XItem copy() {
+        final XItem copy = new XItem(this);
+        if (!getItems().isEmpty()) {
+            final List<XItem> items = new ArrayList<>(getItems().size());
+            for (XItem item : getItems().values()) {
+                items.add(item.copy());
+            }
+            copy.setItems(items);
+        }
+        //the copy has the same content, it is not generated again
+        if (generator instanceof FillGenerator) {
+            ((FillGenerator) copy.generator).reuse((FillGenerator) generator);
+        }
+        return copy;
+    }
+
+    /**
+     * @return The number of characters of the generated content that is kept with this item
+     */
+    int generatedLength() {
+        if (!(generator instanceof FillGenerator)) {
+            return 0;
+        }
+        final Generated generated = ((FillGenerator) generator).generated;
+        return generated == null ? 0 : generated.html.length();
+    }
+
     public void init(Site site) {
     	LOG.debug("init site: {}", site);
         this.xPath.site().init(site);
@@ -110,50 +142,29 @@ public class XItem implements Comparable<XItem>, Serializable {
         generator.model().put(XPath.ORIGINAL_ROOT, xPath.originalRoot());
 
         generator.model().put(XPath.FILENAME, xPath.fileName());
-        generator.model().put(XPath.FILESCOUNT, xPath.filesCount());
-        generator.model().put(XPath.FILESIZE, xPath.fileSize());
+        //walking a directory is expensive, only do it if a template needs it
+        generator.model().put(XPath.FILESCOUNT, new LazyNumberModel(xPath::filesCount));
+        generator.model().put(XPath.FILESIZE, new LazyNumberModel(xPath::fileSize));
         generator.model().put(XPath.EXTENSIONS, xPath.extensions());
         generator.model().put(XPath.EXTENSION_LIST, xPath.extensionList());
         generator.model().put(XPath.PROPERTIES, xPath.properties());
         generator.model().put(XPath.PAGING, xPath.getPageSize());
         generator.model().put(XPath.LAYOUT, xPath.getLayoutSuffix());
-        //
-        generator.model().put(XPath.IS_ASCENDING, xPath.isAscending());
-        generator.model().put(XPath.IS_AUTOSORT, xPath.isAutoSort());
-        generator.model().put(XPath.IS_COMPILE, xPath.isCompile());
-        generator.model().put(XPath.IS_DESCENDING, xPath.isDescending());
-        generator.model().put(XPath.IS_DIRECTORY, xPath.isDirectory());
-        generator.model().put(XPath.IS_HIDDEN, xPath.isHidden());
-        generator.model().put(XPath.IS_NAVIGATION, xPath.isNavigation());
-        generator.model().put(XPath.IS_NOINDEX, xPath.isNoIndex());
-        generator.model().put(XPath.IS_COPY, xPath.isCopy());
-        generator.model().put(XPath.IS_INDEX, xPath.isIndex());
-        generator.model().put(XPath.IS_PROMOTED_LIST, xPath.isPromoted());
-        generator.model().put(XPath.IS_PROMOTED_ITEM, xPath.isPromotedItem());
-        generator.model().put(XPath.IS_PROMOTED_ALL, xPath.isPromotedAll());
-        generator.model().put(XPath.IS_PROMOTED_ALL_ITEM, xPath.isPromotedAllItem());
-        generator.model().put(XPath.IS_EXPOSED, xPath.isExposed());
-        generator.model().put(XPath.IS_CONTENT, xPath.isContent());
-        generator.model().put(XPath.IS_ROOT, xPath.isRoot());
-        generator.model().put(XPath.IS_VISIBLE, xPath.isVisible());
-        generator.model().put(XPath.IS_WRITE, xPath.isItemWritten());
-    }
-
-    private void initNavigation() {
-        Link global = xPath.site().globalNavigation();
-        generator.model().put(NAVIGATION, global.getChildren());
-        Link local = xPath.site().loadLocalNavigation(xPath);
-        generator.model().put(LOCALNAV, local.getChildren());
-        generator.model().put(IS_NAVIGATION, Utils.isChild(global, local));
-        List<Link> pathToRoot = Utils.linkToRoot(Paths.get(xPath.site().source()), xPath);
-        generator.model().put(BREADCRUMB, pathToRoot);
-        XPath toFind = xPath.isDirectory()? xPath: xPath.getParent();
-        if(toFind.isNavigation()) {
-            Link current = Utils.find(toFind, global);
-            if (current == null) {
-                current = Utils.find(toFind, local);
-            }
-            generator.model().put(XItem.CURRENT_NAV, current);
+        //the flags are read from the path when a template needs them
+        if (generator.model() instanceof XModel) {
+            ((XModel) generator.model()).xPath(xPath);
+        } else {
+            generator.model().putAll(XModel.flags(xPath));
+        }
+    }
+
+    private void initNavigation(Site.Navigation navigation) {
+        generator.model().put(NAVIGATION, xPath.site().globalNavigation().getChildren());
+        generator.model().put(LOCALNAV, navigation.localChildren());
+        generator.model().put(IS_NAVIGATION, navigation.isNavigation());
+        generator.model().put(BREADCRUMB, navigation.breadcrumb());
+        if(navigation.directory().isNavigation()) {
+            generator.model().put(XItem.CURRENT_NAV, navigation.current());
         }
     }
 
@@ -346,7 +357,8 @@ public class XItem implements Comparable<XItem>, Serializable {
     }
 
     public String getFileSize() {
-        return (String) generator.model().get(XPath.FILESIZE);
+        final Object fileSize = generator.model().get(XPath.FILESIZE);
+        return fileSize == null ? null : fileSize.toString();
     }
 
     public XItem setFileSize(String fileSize) {
@@ -355,7 +367,8 @@ public class XItem implements Comparable<XItem>, Serializable {
     }
 
     public String getFilesCount() {
-        return (String) generator.model().get(XPath.FILESCOUNT);
+        final Object filesCount = generator.model().get(XPath.FILESCOUNT);
+        return filesCount == null ? null : filesCount.toString();
     }
 
     public XItem setFilesCount(long filesCount) {
@@ -420,6 +433,15 @@ public class XItem implements Comparable<XItem>, Serializable {
         return retVal;
     }
 
+    /**
+     * Generates the content into the writer, e.g. a file. If the content was already generated, the generated
+     * content is written.
+     */
+    public void writeContent(Writer out) throws IOException, TemplateException {
+        LOG.debug("generate for: {}", xPath);
+        generator.generate(out);
+    }
+
     /**
      * @return The content
      */
@@ -555,6 +577,12 @@ public class XItem implements Comparable<XItem>, Serializable {
 
     public interface Generator {
         String generate();
+        default void generate(Writer out) throws IOException, TemplateException {
+            String html = generate();
+            if (html != null) {
+                out.write(html);
+            }
+        }
         Map<String, Object> model();
         Generator templateBean(TemplateBean templateBean);
         TemplateBean templateBean();
@@ -595,30 +623,53 @@ public class XItem implements Comparable<XItem>, Serializable {
         private static final Logger LOG = LoggerFactory
                 .getLogger(Generator.class);
         private static final long serialVersionUID = -8512427831292951263L;
+        private static final String[] POST_APPLY_KEYS = {"path", "root", "name", "date", "nr", "url"};
 
         @Getter @Setter
         private TemplateBean templateBean;
 
         @Getter
-        final private Map<String, Object> model;
+        final private XModel model;
         final private Site site;
+        /**
+         * the last generated content, it is valid as long as the model, its items and the template did not change
+         */
+        private transient volatile Generated generated;
 
         public FillGenerator(Site site, TemplateBean templateBean) {
             this.site = site;
             this.templateBean = templateBean;
-            this.model = new HashMap<String, Object>();
+            this.model = new XModel();
         }
 
         public FillGenerator(Generator generator) {
             this.site = generator.site();
             this.templateBean = generator.templateBean();
-            this.model = new HashMap<>(generator.model());
+            this.model = new XModel(generator.model());
         }
 
         public String generate() {
             try {
-                String html = Utils.applyTemplate(site, templateBean, model);
-                html = Utils.postApplyTemplate(html, this.model, "path", "root", "name", "date", "nr", "url");
+                final long stamp = model.stamp();
+                final TemplateBean templateBean = this.templateBean;
+                final Template template = templateBean.template();
+                final Generated generated = this.generated;
+                if (generated != null && generated.stamp == stamp && generated.templateBean == templateBean
+                        && generated.template == template && generated.isValid(site)) {
+                    return generated.html;
+                }
+                long indexVersion = site.indexVersion();
+                final boolean outer = LazyNumberModel.begin();
+                String html;
+                try {
+                    html = Utils.applyTemplate(site, templateBean, model);
+                } finally {
+                    if (!LazyNumberModel.end(outer)) {
+                        indexVersion = Generated.NO_INDEXES;
+                    }
+                }
+                html = Utils.postApplyTemplate(html, this.model, POST_APPLY_KEYS);
+                this.generated = new Generated(stamp, templateBean, template, html, indexVersion);
                 return html;
             } catch (TemplateException | IOException e) {
                 LOG.warn("cannot generate document {}. Model is {}",
@@ -627,9 +678,74 @@ public class XItem implements Comparable<XItem>, Serializable {
             }
         }
 
+        @Override
+        public void generate(Writer out) throws IOException, TemplateException {
+            final Generated generated = this.generated;
+            if (generated != null && generated.stamp == model.stamp() && generated.templateBean == templateBean
+                    && generated.template == templateBean.template() && generated.isValid(site)) {
+                out.write(generated.html);
+                return;
+            }
+            final PlaceholderWriter placeholderWriter = new PlaceholderWriter(out, model, POST_APPLY_KEYS);
+            Utils.applyTemplate(site, templateBean, model, placeholderWriter);
+            placeholderWriter.finish();
+        }
+
         @Override
         public Site site() {
             return site;
         }
+
+        /**
+         * Takes the generated content of the original, if it is still valid
+         */
+        private void reuse(FillGenerator original) {
+            final Generated generated = original.generated;
+            if (generated != null && generated.stamp == original.model.stamp()
+                    && generated.templateBean == templateBean) {
+                this.generated = new Generated(model.stamp(), generated.templateBean, generated.template,
+                        generated.html, generated.indexVersion);
+            }
+        }
+    }
+
+    private static class Generated {
+        /**
+         * the content did not read the number of files or the size of a file
+         */
+        private static final long NO_INDEXES = -1;
+
+        final private long stamp;
+        final private TemplateBean templateBean;
+        final private Template template;
+        final private String html;
+        /**
+         * the version of the indexes of the site the content read, they are not part of the stamp
+         */
+        final private long indexVersion;
+
+        private Generated(long stamp, TemplateBean templateBean, Template template, String html,
+                long indexVersion) {
+            this.stamp = stamp;
+            this.templateBean = templateBean;
+            this.template = template;
+            this.html = html;
+            this.indexVersion = indexVersion;
+        }
+
+        /**
+         * @return True if the indexes the content read did not change, the content that is reused counts as
+         * read for an outer rendering
+         */
+        private boolean isValid(Site site) {
+            if (indexVersion == NO_INDEXES) {
+                return true;
+            }
+            if (indexVersion != site.indexVersion()) {
+                return false;
+            }
+            LazyNumberModel.read();
+            return true;
+        }
     }
 }
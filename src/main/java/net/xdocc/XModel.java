@@ -0,0 +1,443 @@
+package net.xdocc;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * The model of an item. It counts the changes, so that the content only needs to be generated again if the
+ * model or the model of one of its items changed.
+ *
+ * The keys every item has are stored in fixed slots, the flags of the path are not stored at all but read
+ * from the shared {@link XPath} when a template needs them. Other keys go to a map that is only created if
+ * needed.
+ */
+public class XModel extends AbstractMap<String, Object> implements Serializable {
+
+    private static final long serialVersionUID = -2466470806843812456L;
+
+    /**
+     * a change in any model gets a higher version than all changes before
+     */
+    private static final AtomicLong CHANGES = new AtomicLong();
+
+    /**
+     * marks an empty slot, null is a valid value
+     */
+    private static final Object ABSENT = new Absent();
+
+    private static final String[] SLOTS = {XPath.NAME, XPath.URL, XPath.DATE, XPath.NR, XPath.ORIGINAL_PATH,
+            XPath.ORIGINAL_ROOT, XPath.FILENAME, XPath.FILESCOUNT, XPath.FILESIZE, XPath.EXTENSIONS,
+            XPath.EXTENSION_LIST, XPath.PROPERTIES, XPath.PAGING, XPath.LAYOUT, XItem.DEPTH, XItem.NAVIGATION,
+            XItem.LOCALNAV, XItem.IS_NAVIGATION, XItem.BREADCRUMB, XItem.CURRENT_NAV, XItem.CONTENT,
+            XItem.TEMPLATE, XItem.ITEMS, XItem.ITEMS_URL, XItem.ITEMS_NR, XItem.ROOT, XItem.PATH, XItem.LINK,
+            XItem.ORIGINAL_LINK, XItem.SRC_SETS, XItem.PROMOTE_DEPTH, XItem.CONSUMES_DIRECTORY};
+
+    private static final Map<String, Integer> SLOT_INDEX = new HashMap<>();
+
+    private static final Map<String, Integer> FLAG_INDEX = new LinkedHashMap<>();
+    private static final List<Predicate<XPath>> FLAGS = new ArrayList<>();
+
+    static {
+        for (int i = 0; i < SLOTS.length; i++) {
+            SLOT_INDEX.put(SLOTS[i], i);
+        }
+        flag(XPath.IS_ASCENDING, XPath::isAscending);
+        flag(XPath.IS_AUTOSORT, XPath::isAutoSort);
+        flag(XPath.IS_COMPILE, XPath::isCompile);
+        flag(XPath.IS_DESCENDING, XPath::isDescending);
+        flag(XPath.IS_DIRECTORY, XPath::isDirectory);
+        flag(XPath.IS_HIDDEN, XPath::isHidden);
+        flag(XPath.IS_NAVIGATION, XPath::isNavigation);
+        flag(XPath.IS_NOINDEX, XPath::isNoIndex);
+        flag(XPath.IS_COPY, XPath::isCopy);
+        flag(XPath.IS_INDEX, XPath::isIndex);
+        flag(XPath.IS_PROMOTED_LIST, XPath::isPromoted);
+        flag(XPath.IS_PROMOTED_ITEM, XPath::isPromotedItem);
+        flag(XPath.IS_PROMOTED_ALL, XPath::isPromotedAll);
+        flag(XPath.IS_PROMOTED_ALL_ITEM, XPath::isPromotedAllItem);
+        flag(XPath.IS_EXPOSED, XPath::isExposed);
+        flag(XPath.IS_CONTENT, XPath::isContent);
+        flag(XPath.IS_ROOT, XPath::isRoot);
+        flag(XPath.IS_VISIBLE, XPath::isVisible);
+        flag(XPath.IS_WRITE, XPath::isItemWritten);
+    }
+
+    private static void flag(String key, Predicate<XPath> value) {
+        FLAG_INDEX.put(key, FLAGS.size());
+        FLAGS.add(value);
+    }
+
+    private long version = CHANGES.incrementAndGet();
+
+    private final Object[] slots;
+    /**
+     * the keys without a slot and the flags that were set explicitly, null until needed
+     */
+    private HashMap<String, Object> others;
+
+    /**
+     * the path the flags are derived from, null if the flags are not derived
+     */
+    private XPath xPath;
+    /**
+     * the lower 32 bits mark the flags that were read from the path, the upper 32 bits hold their values
+     */
+    private transient volatile long flags;
+
+    public XModel() {
+        slots = new Object[SLOTS.length];
+        Arrays.fill(slots, ABSENT);
+    }
+
+    public XModel(Map<String, Object> model) {
+        if (model instanceof XModel) {
+            final XModel other = (XModel) model;
+            this.slots = other.slots.clone();
+            this.others = other.others == null ? null : new HashMap<>(other.others);
+            this.xPath = other.xPath;
+            this.flags = other.flags;
+        } else {
+            this.slots = new Object[SLOTS.length];
+            Arrays.fill(slots, ABSENT);
+            putAll(model);
+        }
+    }
+
+    /**
+     * The flags of the path (isdirectory, isnavigation, ...) are read from the path when they are needed
+     */
+    public XModel xPath(XPath xPath) {
+        if (this.xPath != xPath) {
+            this.xPath = xPath;
+            this.flags = 0;
+            changed();
+        }
+        return this;
+    }
+
+    /**
+     * @return The flags of the path as a map, for models that cannot derive them
+     */
+    public static Map<String, Object> flags(XPath xPath) {
+        final Map<String, Object> flags = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : FLAG_INDEX.entrySet()) {
+            flags.put(entry.getKey(), FLAGS.get(entry.getValue()).test(xPath));
+        }
+        return flags;
+    }
+
+    /**
+     * @return True if the value of the key is derived from the path and not stored in this model
+     */
+    public boolean derived(String key) {
+        return xPath != null && FLAG_INDEX.containsKey(key) && (others == null || !others.containsKey(key));
+    }
+
+    @Override
+    public Object get(Object key) {
+        final Object value = raw(key);
+        return value == ABSENT ? null : value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return raw(key) != ABSENT;
+    }
+
+    private Object raw(Object key) {
+        final Integer slot = SLOT_INDEX.get(key);
+        if (slot != null) {
+            return slots[slot];
+        }
+        if (others != null && others.containsKey(key)) {
+            return others.get(key);
+        }
+        final Integer flag = FLAG_INDEX.get(key);
+        if (flag != null && xPath != null) {
+            return flag(flag);
+        }
+        return ABSENT;
+    }
+
+    private boolean flag(int flag) {
+        final long current = flags;
+        if ((current & (1L << flag)) != 0) {
+            return (current & (1L << (flag + 32))) != 0;
+        }
+        final boolean value = FLAGS.get(flag).test(xPath);
+        //a concurrent update may get lost, then the flag is read again
+        flags = flags | (1L << flag) | (value ? 1L << (flag + 32) : 0);
+        return value;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        final Object old;
+        final Integer slot = SLOT_INDEX.get(key);
+        if (slot != null) {
+            old = slots[slot];
+            slots[slot] = value;
+        } else {
+            old = raw(key);
+            if (others == null) {
+                others = new HashMap<>();
+            }
+            others.put(key, value);
+        }
+        if (old == ABSENT || !same(old, value)) {
+            changed();
+        }
+        return old == ABSENT ? null : old;
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        if (containsKey(key)) {
+            return get(key);
+        }
+        return put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        final Object old = raw(key);
+        if (old == ABSENT) {
+            return null;
+        }
+        final Integer slot = SLOT_INDEX.get(key);
+        if (slot != null) {
+            slots[slot] = ABSENT;
+        } else if (FLAG_INDEX.containsKey(key) && xPath != null) {
+            //a removed flag must not be derived again
+            if (others == null) {
+                others = new HashMap<>();
+            }
+            others.put((String) key, ABSENT);
+        } else {
+            others.remove(key);
+        }
+        changed();
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        changed();
+        Arrays.fill(slots, ABSENT);
+        others = null;
+        xPath = null;
+        flags = 0;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Object value : slots) {
+            if (value != ABSENT) {
+                size++;
+            }
+        }
+        if (others != null) {
+            for (Object value : others.values()) {
+                if (value != ABSENT) {
+                    size++;
+                }
+            }
+        }
+        if (xPath != null) {
+            for (String key : FLAG_INDEX.keySet()) {
+                if (others == null || !others.containsKey(key)) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                final Iterator<Entry<String, Object>> iterator = entries().iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    private Entry<String, Object> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        current = iterator.next();
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null) {
+                            throw new IllegalStateException();
+                        }
+                        XModel.this.remove(current.getKey());
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return XModel.this.size();
+            }
+        };
+    }
+
+    /**
+     * @return The entries at the time of the call, setting a value of an entry sets it in the model
+     */
+    private List<Entry<String, Object>> entries() {
+        final List<Entry<String, Object>> entries = new ArrayList<>(SLOTS.length + FLAGS.size());
+        for (int i = 0; i < SLOTS.length; i++) {
+            if (slots[i] != ABSENT) {
+                entries.add(new ModelEntry(SLOTS[i], slots[i]));
+            }
+        }
+        if (others != null) {
+            for (Map.Entry<String, Object> entry : others.entrySet()) {
+                if (entry.getValue() != ABSENT) {
+                    entries.add(new ModelEntry(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        if (xPath != null) {
+            for (String key : FLAG_INDEX.keySet()) {
+                if (others == null || !others.containsKey(key)) {
+                    entries.add(new FlagEntry(key));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private class ModelEntry extends SimpleEntry<String, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private ModelEntry(String key, Object value) {
+            super(key, value);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * The flag is only read from the path if the value is needed
+     */
+    private class FlagEntry implements Entry<String, Object> {
+        private final String key;
+
+        private FlagEntry(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return get(key);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            final Entry<?, ?> entry = (Entry<?, ?>) o;
+            return key.equals(entry.getKey()) && getValue().equals(entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    private void changed() {
+        version = CHANGES.incrementAndGet();
+    }
+
+    /**
+     * @return The version of the latest change of this model or the model of one of its items. It is higher
+     * after every change, also if items are replaced by older items.
+     */
+    public long stamp() {
+        long stamp = version;
+        final Object items = get(XItem.ITEMS);
+        if (items instanceof Map) {
+            for (Object item : ((Map<?, ?>) items).values()) {
+                if (item instanceof XItem) {
+                    final Map<String, Object> model = ((XItem) item).documentGenerator().model();
+                    if (model instanceof XModel) {
+                        stamp = Math.max(stamp, ((XModel) model).stamp());
+                    }
+                }
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * Lists and maps (e.g. the items) can be equal with a different order, they are only the same if its
+     * the same instance
+     */
+    private static boolean same(Object o1, Object o2) {
+        if (o1 == o2) {
+            return true;
+        }
+        if (o1 == null || o2 == null) {
+            return false;
+        }
+        final boolean immutable = o1 instanceof String || o1 instanceof Number || o1 instanceof Boolean
+                || o1 instanceof Date;
+        return immutable && o1.equals(o2);
+    }
+
+    /**
+     * There is only one instance, also after deserialization
+     */
+    private static class Absent implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Object readResolve() {
+            return ABSENT;
+        }
+    }
+}
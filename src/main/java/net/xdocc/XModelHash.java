@@ -0,0 +1,52 @@
+package net.xdocc;
+
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleCollection;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.WrappingTemplateModel;
+
+/**
+ * Gives the templates access to the model of an item without copying it, a flag of the path is only read
+ * if the template uses it.
+ */
+class XModelHash extends WrappingTemplateModel implements TemplateHashModelEx {
+
+    private final XModel model;
+
+    XModelHash(XModel model, ObjectWrapper objectWrapper) {
+        super(objectWrapper);
+        this.model = model;
+    }
+
+    @Override
+    public TemplateModel get(String key) throws TemplateModelException {
+        final Object value = model.get(key);
+        if (value == null && !model.containsKey(key)) {
+            return null;
+        }
+        return wrap(value);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return model.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return model.size();
+    }
+
+    @Override
+    public TemplateCollectionModel keys() {
+        return new SimpleCollection(model.keySet(), getObjectWrapper());
+    }
+
+    @Override
+    public TemplateCollectionModel values() {
+        return new SimpleCollection(model.values(), getObjectWrapper());
+    }
+}
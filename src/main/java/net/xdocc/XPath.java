@@ -75,7 +75,6 @@ final public class XPath implements Comparable<XPath>, Serializable {
     public static final String NAME = "name";
 
     @Getter
-    @Setter
     private String url;
     public static final String URL = "url";
 
@@ -83,6 +82,10 @@ final public class XPath implements Comparable<XPath>, Serializable {
     private boolean visible;
 
     private final static Map<String, XPath> cache = new ConcurrentHashMap<>();
+    /**
+     * key of a directory -> the keys of the paths directly below it, so that a change only visits its subtree
+     */
+    private final static Map<String, Set<String>> children = new ConcurrentHashMap<>();
 
     /**
      * Creates a xPath object from a path. The path will be parsed and information will be extracted.
@@ -160,17 +163,43 @@ final public class XPath implements Comparable<XPath>, Serializable {
                 + name + ",url=" + url);
     }
 
+    private static String key(Site site, Path path) {
+        return site.source() + site.generated() + path.toString();
+    }
+
     public static XPath get(Site site, Path path) {
-        String key = site.source()+site.generated()+path.toString();
+        String key = key(site, path);
         XPath xPath = cache.get(key);
         if(xPath == null) {
             LOG.debug("path: {} not found", path);
             xPath = new XPath(site, path);
-            cache.put(key, xPath);
+            final XPath existing = cache.putIfAbsent(key, xPath);
+            if (existing != null) {
+                return existing;
+            }
+            index(site, path);
         }
         return xPath;
     }
 
+    /**
+     * Adds the path to the children of its parent, and the parent to its parent, until one is already known
+     */
+    private static void index(Site site, Path path) {
+        final Path source = Paths.get(site.source());
+        Path child = path;
+        Path parent = path.getParent();
+        while (parent != null && parent.startsWith(source)) {
+            final Set<String> siblings = children.computeIfAbsent(key(site, parent),
+                    k -> ConcurrentHashMap.newKeySet());
+            if (!siblings.add(key(site, child))) {
+                break;
+            }
+            child = parent;
+            parent = parent.getParent();
+        }
+    }
+
     private void readFrontmatter() {
         Path frontmatter = Paths.get(path).resolve(".xdocc");
         if (Files.exists(frontmatter)) {
@@ -461,42 +490,67 @@ final public class XPath implements Comparable<XPath>, Serializable {
     }
     public static final String FILENAME = "filename";
 
+    /**
+     * the url of every directory from the root to this path, derived from the segments of the parent and
+     * computed once
+     */
+    private transient volatile String[] segments;
+    private transient volatile String targetURL;
+    private transient volatile String targetURLPath;
+
+    private String[] segments() {
+        String[] segments = this.segments;
+        if (segments == null) {
+            final Path p = Paths.get(path);
+            if (p.equals(Paths.get(site.source()))) {
+                segments = new String[0];
+            } else {
+                final String[] parent = XPath.get(site, p.getParent()).segments();
+                segments = Arrays.copyOf(parent, parent.length + 1);
+                segments[parent.length] = url;
+            }
+            this.segments = segments;
+        }
+        return segments;
+    }
+
     public String getTargetURLName() {
-        String[] paths = Utils.createURLSplit(Paths.get(site.source()), this);
+        String[] paths = segments();
         return paths[paths.length - 1];
     }
 
     public String getTargetURLFilename() {
-        String[] paths = Utils.createURLSplit(Paths.get(site.source()), this);
-        paths[paths.length - 1] = fileName();
-        String url = Utils.createURL(paths);
-        return url;
+        String[] paths = segments();
+        if (paths.length == 1) {
+            return fileName();
+        }
+        return getTargetURLPath() + "/" + fileName();
     }
 
     /**
      * @return The url of the file that have been compiled
      */
     public String getTargetURL() {
-        String[] paths = Utils.createURLSplit(Paths.get(site.source()), this);
-        String url = Utils.createURL(paths);
+        String url = this.targetURL;
+        if (url == null) {
+            url = Utils.createURL(segments());
+            this.targetURL = url;
+        }
         return url;
     }
 
     public int getTargetDepth() {
-        String[] paths = Utils.createURLSplit(Paths.get(site.source()), this);
-        return paths.length - (isDirectory() ? 0 : 1);
+        return segments().length - (isDirectory() ? 0 : 1);
     }
 
     public String getTargetURLPath() {
-        String[] paths = Utils.createURLSplit(Paths.get(site.source()), this);
-
-        String[] tmp = new String[paths.length - 1];
-        for (int i = 0; i < tmp.length; i++) {
-            tmp[i] = paths[i];
+        String url = this.targetURLPath;
+        if (url == null) {
+            String[] paths = segments();
+            url = Utils.createURL(Arrays.copyOf(paths, paths.length - 1));
+            this.targetURLPath = url;
         }
-        String url = Utils.createURL(tmp);
         return url;
-
     }
 
     /**
@@ -808,46 +862,127 @@ final public class XPath implements Comparable<XPath>, Serializable {
     public static final String PAGING = "paging";
 
     /**
-     * Search a property the hierarchy up, starting at "this"
+     * The recursive properties of this path, resolved with the ones of the parent. The key is the list of
+     * names of a property.
+     */
+    private static class Inherited {
+        final private Map<List<String>, Optional<String>> properties = new ConcurrentHashMap<>();
+        final private Map<List<String>, Boolean> flags = new ConcurrentHashMap<>();
+    }
+
+    private transient volatile Inherited inherited;
+
+    private Inherited inherited() {
+        Inherited inherited = this.inherited;
+        if (inherited == null) {
+            inherited = new Inherited();
+            this.inherited = inherited;
+        }
+        return inherited;
+    }
+
+    /**
+     * Search a property the hierarchy up, starting at "this". The result is resolved once with the result of
+     * the parent.
      *
      * @param names
      * @return
      */
     public String getRecursiveProperty(String... names) {
-        XPath current = this;
-        do {
-            String property = current.getProperty(names);
-            boolean contains = current.isPropertyTrue(names);
-            if (property != null) {
-                return property;
-            } else if(contains) {
-                return "";
+        final List<String> key = Arrays.asList(names);
+        final Inherited inherited = inherited();
+        Optional<String> property = inherited.properties.get(key);
+        if (property == null) {
+            String value = getProperty(names);
+            if (value == null && isPropertyTrue(names)) {
+                value = "";
+            }
+            if (value == null) {
+                final XPath parent = getParent();
+                value = parent == null ? null : parent.getRecursiveProperty(names);
             }
-        } while ((current = current.getParent()) != null);
+            property = Optional.ofNullable(value);
+            inherited.properties.put(key, property);
+        }
+        return property.orElse(null);
+    }
 
+    public boolean hasRecursiveProperty(String... names) {
+        final List<String> key = Arrays.asList(names);
+        final Inherited inherited = inherited();
+        Boolean flag = inherited.flags.get(key);
+        if (flag == null) {
+            flag = isPropertyTrue(names);
+            if (!flag) {
+                final XPath parent = getParent();
+                flag = parent != null && parent.hasRecursiveProperty(names);
+            }
+            inherited.flags.put(key, flag);
+        }
+        return flag;
+    }
 
-        return null;
+    /**
+     * Removes the changed paths from the cache, they are parsed again when they are used. The paths below a
+     * changed directory keep their own properties, but resolve the recursive properties and the url again.
+     *
+     * @param changedPaths The changed files and directories, a changed .xdocc file changes its directory
+     */
+    public static void invalidate(Site site, Collection<Path> changedPaths) {
+        final Deque<String> changed = new ArrayDeque<>();
+        for (Path changedPath : changedPaths) {
+            Path p = changedPath;
+            if (p.getFileName() != null && ".xdocc".equals(p.getFileName().toString())) {
+                p = p.getParent();
+            }
+            final String key = key(site, p);
+            cache.remove(key);
+            changed.add(key);
+        }
+        //every path below a changed path, each subtree is visited once
+        final Set<String> visited = new HashSet<>();
+        while (!changed.isEmpty()) {
+            final String key = changed.poll();
+            if (!visited.add(key)) {
+                continue;
+            }
+            final Set<String> below = children.get(key);
+            if (below == null) {
+                continue;
+            }
+            for (String child : below) {
+                final XPath xPath = cache.get(child);
+                if (xPath != null) {
+                    xPath.clearMemos();
+                }
+                changed.add(child);
+            }
+        }
     }
 
-     public boolean hasRecursiveProperty(String... names) {
-        XPath current = this;
-        do {
-            if (current.isPropertyTrue(names)) {
-                return true;
+    /**
+     * Forgets the resolved recursive properties and urls of all paths of the site, e.g. before a full
+     * compile, as the .xdocc files may have changed since the last run
+     */
+    public static void clearMemos(Site site) {
+        for (XPath xPath : cache.values()) {
+            if (xPath.site.equals(site)) {
+                xPath.clearMemos();
             }
-        } while ((current = current.getParent()) != null);
+        }
+    }
 
-        return false;
+    private void clearMemos() {
+        inherited = null;
+        segments = null;
+        targetURL = null;
+        targetURLPath = null;
     }
 
     public long fileSize() {
         Path p = Paths.get(path);
         try {
-            if (!Files.isDirectory(p)) {
-                return Files.size(p);
-            } else {
-                return 0;
-            }
+            return site.fileSize(p);
         } catch (IOException ex) {
             LOG.error("[" + path + "], file size not able to determine");
             return -1;
@@ -858,11 +993,7 @@ final public class XPath implements Comparable<XPath>, Serializable {
     public long filesCount() {
         Path p = Paths.get(path);
         try {
-            if (Files.isDirectory(p)) {
-                return Files.walk(p).count();
-            } else {
-                return 1;
-            }
+            return site.filesCount(p);
         } catch (IOException ex) {
             LOG.error("[" + path + "], file size not able to determine");
             return -1;
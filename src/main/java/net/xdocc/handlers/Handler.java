@@ -1,12 +1,12 @@
 package net.xdocc.handlers;
 
 import net.xdocc.Cache;
+import net.xdocc.FilesCounter;
 import net.xdocc.Site;
 import net.xdocc.XItem;
 import net.xdocc.XPath;
 
 import java.util.List;
-import java.util.Map;
 
 public interface Handler {
 
@@ -14,5 +14,5 @@ public interface Handler {
 
     public List<String> knownExtensions();
 
-    public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache) throws Exception;
+    public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache) throws Exception;
 }
@@ -33,14 +33,14 @@ public class HandlerBibTex  implements Handler {
     }
 
     @Override
-    public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache) throws Exception {
+    public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache) throws Exception {
         final XItem doc;
         final Path generatedFile = xPath.resolveTargetFromBasePath(xPath.getTargetURL() + ".html");
         Cache.CacheEntry cached = cache.getCached(site, xPath);
         if (cached != null) {
             doc = cached.xItem();
             if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
         } else {
 
@@ -54,7 +54,7 @@ public class HandlerBibTex  implements Handler {
             doc = Utils.createDocument(site, xPath, htmlContent, "text");
             if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
                 Utils.writeHTML(xPath, doc, generatedFile);
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
             cache.setCached(site, xPath, (Path)null, doc, generatedFile);
         }
@@ -33,7 +33,7 @@ public class HandlerCommand implements Handler {
     }
 
     @Override
-    public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache) throws Exception {
+    public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache) throws Exception {
 
         final XItem doc;
 
@@ -42,7 +42,7 @@ public class HandlerCommand implements Handler {
             doc = cached.xItem();
             if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
                 for(String generatedFile:cached.generatedFiles()) {
-                    Utils.increase(filesCounter, Utils.listPathsGen(site, Paths.get(generatedFile)));
+                    filesCounter.increase(Paths.get(generatedFile));
                 }
             }
         } else {
@@ -69,7 +69,7 @@ public class HandlerCommand implements Handler {
 
 
                 Utils.writeHTML(xPath, doc, generatedFile);
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
 
 
                 //copy HTML files, but modify header
@@ -82,7 +82,7 @@ public class HandlerCommand implements Handler {
                                 XItem doc2 = Utils.createDocument(site, xPath, htmlContent2, "directory-command");
                                 Path generatedFile2 = xPath.resolveTargetFromBasePath(xPath.getTargetURL() + "/" + filePath.getFileName());
                                 Utils.writeHTML(xPath, doc2, generatedFile2);
-                                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile2));
+                                filesCounter.increase(generatedFile2);
                             }
                         } catch (IOException | TemplateException e) {
                             e.printStackTrace();
@@ -155,7 +155,7 @@ public class HandlerCommand implements Handler {
 
                     if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
                         Utils.writeHTML(xPath, doc, generatedFile);
-                        Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                        filesCounter.increase(generatedFile);
                     }
                     cache.setCached(site, xPath, (Path) null, doc, generatedFile);
                 } else {
@@ -25,7 +25,7 @@ public class HandlerCopy implements Handler {
     }
 
     @Override
-    public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache) {
+    public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache) {
         final Path generatedFile;
         if (xPath.isVisible()) {
             String filename = xPath.fileName();
@@ -42,7 +42,7 @@ public class HandlerCopy implements Handler {
                 Cache.CacheEntry cached = cache.getCached(site, xPath);
                 if (cached != null) {
                     XItem doc = cached.xItem();
-                    Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                    filesCounter.increase(generatedFile);
                     return doc;
                 } else {
                     return null;
@@ -59,7 +59,7 @@ public class HandlerCopy implements Handler {
                             StandardCopyOption.REPLACE_EXISTING,
                             LinkOption.NOFOLLOW_LINKS);
                 }
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
                 LOG.debug("copy {} to {}", xPath.path(), generatedFile);
 
                 if (xPath.isCopy() || xPath.isVisible()) {
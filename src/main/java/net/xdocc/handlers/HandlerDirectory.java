@@ -24,7 +24,7 @@ public class HandlerDirectory implements Handler {
 	public boolean canHandle(Site site, XPath xPath) {return xPath.isDirectory() && xPath.isCopy();}
 
 	@Override
-	public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache) throws Exception {
+	public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache) throws Exception {
 
         final XItem doc;
         final Path generatedFile;
@@ -41,20 +41,20 @@ public class HandlerDirectory implements Handler {
         Cache.CacheEntry cached = cache.getCached(site, xPath);
         if (cached != null) {
             doc = cached.xItem();
-            Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+            filesCounter.increase(generatedFile);
         } else {
             Utils.createDirectories(generatedFile);
-            Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+            filesCounter.increase(generatedFile);
             LOG.debug("copy {} to {}", xPath.path(), generatedFile);
             doc = HandlerCopy.createDocumentBrowse(site, xPath, "");
-            Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+            filesCounter.increase(generatedFile);
             cache.setCached(site, xPath, (Path)null, doc, generatedFile);
         }
         return doc;
 	}
 
 	public static XItem compileList(Site site, final Path path, final List<XItem> results,
-                             Map<String, Integer> filesCounter, Cache cache, final int depth)
+                             FilesCounter filesCounter, Cache cache, final int depth)
             throws IOException, TemplateException {
         XPath xPath = XPath.get(site, path);
 
@@ -64,7 +64,7 @@ public class HandlerDirectory implements Handler {
         if (cached != null  && HandlerUtils.childCached(cache, cached.xItem())) {
             doc = cached.xItem();
             if (!xPath.isNoIndex()) {
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
         } else {
 
@@ -96,12 +96,13 @@ public class HandlerDirectory implements Handler {
                         List<XItem> promotedList = new ArrayList<>();
                         for(XItem itemPromoted:item.getItems().values()) {
                             if(itemPromoted.getPromotedList() || itemPromoted.getPromotedItem()) {
-                                XItem tmp = new XItem(itemPromoted.xPath(), itemPromoted.documentGenerator());
+                                //the items are kept in the cache, do not change their model
+                                XItem tmp = new XItem(itemPromoted.xPath(), new XItem.FillGenerator(itemPromoted.documentGenerator()));
                                 tmp.incPromoteDepth();
                                 promotedList.add(tmp);
                             }
                         }
-                        XItem tmp = new XItem(item.xPath(), item.documentGenerator());
+                        XItem tmp = new XItem(item.xPath(), new XItem.FillGenerator(item.documentGenerator()));
                         tmp.setItems(promotedList);
                         visible.add(tmp);
 
@@ -120,7 +121,7 @@ public class HandlerDirectory implements Handler {
 
             if (!xPath.isNoIndex() && xPath.isVisible()) {
                 Utils.writeListHTML(xPath, doc, generatedFile);
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
 
         }
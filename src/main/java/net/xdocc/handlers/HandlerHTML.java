@@ -35,7 +35,7 @@ public class HandlerHTML implements Handler {
     }
 
     @Override
-    public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache) throws Exception {
+    public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache) throws Exception {
 
         final XItem doc;
         final Path generatedFile = xPath.resolveTargetFromBasePath(xPath.getTargetURL() + ".html");
@@ -43,7 +43,7 @@ public class HandlerHTML implements Handler {
         if (cached != null) {
             doc = cached.xItem();
             if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
         } else {
             String htmlContent = htmlContent(xPath.path());
@@ -52,7 +52,7 @@ public class HandlerHTML implements Handler {
 
             if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
                 Utils.writeHTML(xPath, doc, generatedFile);
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
             cache.setCached(site, xPath, (Path)null, doc, generatedFile);
         }
@@ -53,7 +53,7 @@ public class HandlerImage implements Handler {
     }
 
     @Override
-    public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache)
+    public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache)
             throws TemplateException, IOException, InterruptedException {
 
         Path generatedFile = xPath.resolveTargetFromBasePath(xPath.getTargetURL() + xPath.extensions());
@@ -66,7 +66,7 @@ public class HandlerImage implements Handler {
         if (cached != null) {
             XItem doc = cached.xItem();
             if (xPath.hasRecursiveProperty("link", "l") && xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile2));
+                filesCounter.increase(generatedFile2);
             }
             return doc;
 
@@ -84,7 +84,7 @@ public class HandlerImage implements Handler {
                 List<Pair<Path, String>> cropList = HandlerImage.cropImages(xPath, crop, 100);
                 docTop.setSrcSets(convert(xPath, site, filesCounter, cropList));
                 for(Pair<Path, String> cropPair:cropList) {
-                    Utils.increase(filesCounter, Utils.listPathsGen(site, cropPair.element0()));
+                    filesCounter.increase(cropPair.element0());
                     cache.setCached(site, xPath, (Path)null, docTop, cropPair.element0());
                 }
 
@@ -92,7 +92,7 @@ public class HandlerImage implements Handler {
                 resizeList = HandlerImage.resizeImages(xPath, 100);
                 docTop.setSrcSets(convert(xPath, site, filesCounter, resizeList));
                 for(Pair<Path, String> resizePair:resizeList) {
-                    Utils.increase(filesCounter, Utils.listPathsGen(site, resizePair.element0()));
+                    filesCounter.increase(resizePair.element0());
                     cache.setCached(site, xPath, (Path)null, docTop, resizePair.element0());
                 }
 
@@ -112,17 +112,17 @@ public class HandlerImage implements Handler {
                 docDetail.setSrcSets(convert(xPath, site, filesCounter, resizeList));
 
                 Utils.writeHTML(xPath, docDetail, generatedFile2);
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile2));
+                filesCounter.increase(generatedFile2);
                 cache.setCached(site, xPath, (Path)null, docTop, generatedFile2);
             }
             return docTop;
         }
     }
 
-    private List<SrcSet> convert(XPath xPath, Site site, Map<String, Integer> filesCounter, List<Pair<Path, String>> resizeList) {
+    private List<SrcSet> convert(XPath xPath, Site site, FilesCounter filesCounter, List<Pair<Path, String>> resizeList) {
         List<SrcSet> result = new ArrayList<>();
         for(Pair<Path, String> pair:resizeList) {
-            Utils.increase(filesCounter, Utils.listPathsGen(site, pair.element0()));
+            filesCounter.increase(pair.element0());
             result.add(new SrcSet(pair.element0().getFileName().toString(), pair.element1()));
         }
         return result;
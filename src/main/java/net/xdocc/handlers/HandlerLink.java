@@ -10,11 +10,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class HandlerLink implements Handler {
 
     private Compiler compiler;
-    
+
     public static final Map<String, String> MAP = new HashMap<String, String>();
     static{
         MAP.put("link.ftl", "<#list items as key,item>${item.content}</#list>");
@@ -32,17 +33,31 @@ public class HandlerLink implements Handler {
     }
 
     @Override
-    public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache) throws Exception {
+    public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache) throws Exception {
+        return compileAsync(site, xPath, filesCounter, cache).get();
+    }
+
+    /**
+     * Compiles the link without blocking. The linked directories are not compiled a second time, the link
+     * waits for the result of the directories from the current run.
+     */
+    public CompletableFuture<XItem> compileAsync(Site site, XPath xPath, FilesCounter filesCounter, Cache cache) {
 
-        final XItem doc;
         final Path generatedFile = xPath.resolveTargetFromBasePath(xPath.getTargetURL() + ".html");
         Cache.CacheEntry cached = cache.getCached(site, xPath);
         if (cached != null) {
-            doc = cached.xItem();
+            final XItem doc = cached.xItem();
+            for (XItem item : doc.getItems().values()) {
+                compiler.dependencies().addDependency(item.xPath(), xPath);
+            }
             if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
-        } else {
+            return CompletableFuture.completedFuture(doc);
+        }
+
+        final List<CompletableFuture<XItem>> documents;
+        try {
             Charset charset = HandlerUtils.detectCharset(Paths.get(xPath.path()));
             String input = HandlerUtils.readFile(Paths.get(xPath.path()), charset);
             StringReader reader = new StringReader(input);
@@ -55,36 +70,55 @@ public class HandlerLink implements Handler {
                 ex.printStackTrace();
             }
 
-            List<XItem> documents = findDocuments(site, xPath, prop, "");
-
+            documents = findDocuments(site, xPath, prop, "");
 
             if (documents == null) {
-                return null;
-            } else {
-                for(int i=0;true;i++) {
-                    List<XItem> tmpDocuments = findDocuments(site, xPath, prop, ""+i);
-                    if(tmpDocuments == null) {
-                        break;
+                return CompletableFuture.completedFuture(null);
+            }
+            for(int i=0;true;i++) {
+                List<CompletableFuture<XItem>> tmpDocuments = findDocuments(site, xPath, prop, ""+i);
+                if(tmpDocuments == null) {
+                    break;
+                }
+                documents.addAll(tmpDocuments);
+            }
+        } catch (IOException e) {
+            final CompletableFuture<XItem> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        return CompletableFuture.allOf(documents.toArray(new CompletableFuture[0])).thenApply(ignore -> {
+            final List<XItem> items = new ArrayList<>(documents.size());
+            for (CompletableFuture<XItem> document : documents) {
+                final XItem item = document.join();
+                if (item != null) {
+                    //the item belongs to the directory it was compiled for, we adjust the paths in a copy
+                    final XItem copy = item.copy();
+                    if (copy.xPath().isDirectory()) {
+                        shiftDepth(copy, copy.getDepth());
                     }
-                    documents.addAll(tmpDocuments);
+                    items.add(copy);
                 }
+            }
+            try {
+                final XItem doc = Utils.createDocument(site, xPath, null, "link");
+                doc.setItems(items);
 
-                doc = Utils.createDocument(site, xPath, null, "link");
-                doc.setItems(documents);
-                
                 // always create a single page for that
                 if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
                     Utils.writeHTML(xPath, doc, generatedFile);
-                    Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                    filesCounter.increase(generatedFile);
                 }
                 cache.setCached(site, xPath, (Path)null, doc, generatedFile);
+                return doc;
+            } catch (Exception e) {
+                throw new CompletionException(e);
             }
-
-        }
-        return doc;
+        });
     }
 
-    private List<XItem> findDocuments(Site site, XPath xPath, Properties prop, String suffix) throws Exception {
+    private List<CompletableFuture<XItem>> findDocuments(Site site, XPath xPath, Properties prop, String suffix) throws IOException {
 
         String url = prop.getProperty("url"+suffix);
         if(url == null) {
@@ -97,7 +131,7 @@ public class HandlerLink implements Handler {
         if (founds.isEmpty() || (founds.size() > 0 && !founds.get(0).isVisible())) {
             return null;
         } else {
-            List<XItem> documents = new ArrayList<>();
+            List<CompletableFuture<XItem>> documents = new ArrayList<>();
 
             final boolean ascending;
             if (xPath.isAutoSort()) {
@@ -109,13 +143,9 @@ public class HandlerLink implements Handler {
 
             int counter = 0;
             for (XPath found : founds) {
-
-                if(found.isDirectory()) {
-                    CompletableFuture<XItem> list = compiler.compile(Paths.get(found.path()), 0);
-                    documents.add(list.get());
-                } else {
-                    documents.add(compiler.compile(found));
-                }
+                compiler.dependencies().addDependency(found, xPath);
+                //null if the link points to its own directory, or to a directory that links back
+                documents.add(compiler.link(xPath, found));
                 //enforce limit
                 if (limit >= 0 && ++counter >= limit) {
                     break;
@@ -125,6 +155,21 @@ public class HandlerLink implements Handler {
         }
     }
 
+    /**
+     * The items of a linked directory are listed as if the directory was compiled with depth 0
+     */
+    private static void shiftDepth(XItem item, Integer base) {
+        if (base == null || base == 0) {
+            return;
+        }
+        if (item.getDepth() != null) {
+            item.setDepth(item.getDepth() - base);
+        }
+        for (XItem child : item.getItems().values()) {
+            shiftDepth(child, base);
+        }
+    }
+
     public void compiler(Compiler compiler) {
         this.compiler = compiler;
     }
@@ -52,7 +52,7 @@ public class HandlerMarkdown implements Handler {
     }
 
     @Override
-    public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache) throws Exception {
+    public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache) throws Exception {
         final XItem doc;
         final Path generatedFile = xPath.resolveTargetFromBasePath(xPath.getTargetURL() + ".html");
         Cache.CacheEntry cached = cache.getCached(site, xPath);
@@ -60,7 +60,7 @@ public class HandlerMarkdown implements Handler {
             LOG.debug("returning cached markedown entry");
             doc = cached.xItem();
             if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
         } else {
             try (Writer out = new StringWriter()) {
@@ -71,7 +71,7 @@ public class HandlerMarkdown implements Handler {
                 doc = Utils.createDocument(site, xPath, htmlContent, "markdown");
                 if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
                     Utils.writeHTML(xPath, doc, generatedFile);
-                    Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                    filesCounter.increase(generatedFile);
                 }
                 cache.setCached(site, xPath, (Path)null, doc, generatedFile);
             }
@@ -48,7 +48,7 @@ public class HandlerWikiText implements Handler {
     }
 
     @Override
-    public XItem compile(Site site, XPath xPath, Map<String, Integer> filesCounter, Cache cache)
+    public XItem compile(Site site, XPath xPath, FilesCounter filesCounter, Cache cache)
             throws Exception {
         final XItem doc;
         final Path generatedFile = xPath.resolveTargetFromBasePath(xPath.getTargetURL() + ".html");
@@ -56,7 +56,7 @@ public class HandlerWikiText implements Handler {
         if (cached != null) {
             doc = cached.xItem();
             if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
         } else {
             String htmlContent = createHTML(xPath);
@@ -65,7 +65,7 @@ public class HandlerWikiText implements Handler {
             // always create a single page for that
             if (xPath.getParent().isItemWritten() && xPath.isItemWritten()) {
                 Utils.writeHTML(xPath, doc, generatedFile);
-                Utils.increase(filesCounter, Utils.listPathsGen(site, generatedFile));
+                filesCounter.increase(generatedFile);
             }
 
             cache.setCached(site, xPath, (Path)null, doc, generatedFile);
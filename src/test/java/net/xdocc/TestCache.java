@@ -14,7 +14,11 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TestCache {
 
@@ -48,6 +52,147 @@ public class TestCache {
         }
     }
 
+    @Test
+    public void testFingerprints() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-test.txt", "this is a text file");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        TestUtils.createFile(src, ".templates/list.ftl", "${depth}/${promotedepth}<#list items as item>[${item.content}]</#list>");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x", "-f");
+        //as after a checkout, all the files have a new timestamp, but the same content
+        try (Stream<Path> walk = Files.walk(src)) {
+            for(Path p : walk.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                Files.setLastModifiedTime(p, FileTime.fromMillis(Files.getLastModifiedTime(p).toMillis() + 10000));
+            }
+        }
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-f");
+        Assert.assertEquals(2, Service.service().cache().hits());
+        TestUtils.replaceFile(src, "1-test.txt", "this is a changed text file");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-f");
+        Assert.assertEquals("this is a changed text file", FileUtils.readFileToString(gen.resolve("test.html").toFile()));
+    }
+
+    @Test
+    public void testTemplateChange() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-test.txt", "1");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x");
+        Assert.assertEquals("1", FileUtils.readFileToString(gen.resolve("test.html").toFile()));
+        TestUtils.replaceFile(src, ".templates/text.ftl", "[${content}]");
+        Files.setLastModifiedTime(src.resolve(".templates/text.ftl"), FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r");
+        Assert.assertEquals(0, Service.service().cache().hits());
+        Assert.assertEquals("[1]", FileUtils.readFileToString(gen.resolve("test.html").toFile()));
+    }
+
+    @Test
+    public void testCachedCopy() throws IOException {
+        TestUtils.createFile(src, "1-test.txt", "1");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        TestUtils.createFile(gen, "test.html", "1");
+        Site site = new Site(src, gen);
+        Cache c = new Cache(new HashMap<>()).updateGeneration(site);
+        XPath xPath = XPath.get(site, src.resolve("1-test.txt"));
+        XItem item = Utils.createDocument(site, xPath, "1", "text");
+        c.setCached(site, xPath, (Path) null, item, gen.resolve("test.html"));
+
+        //neither the cached item nor the copies of a lookup change the cache
+        item.setDepth(5);
+        Cache.CacheEntry cached = c.getCached(site, xPath);
+        Assert.assertNotEquals(Integer.valueOf(5), cached.xItem().getDepth());
+        cached.xItem().setDepth(6);
+        cached.generatedFiles().add(gen.resolve("other.html").toString());
+        Assert.assertNotEquals(Integer.valueOf(6), c.getCached(site, xPath).xItem().getDepth());
+        Assert.assertEquals(1, c.getCached(site, xPath).generatedFiles().size());
+    }
+
+    @Test
+    public void testMmap() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-test.txt", "this is a text file");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        TestUtils.createFile(src, ".templates/list.ftl", "<#list items as item>[${item.content}]</#list>");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x", "-m", "-a", "2");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-m", "-a", "2");
+        Assert.assertEquals(2, Service.service().cache().hits());
+    }
+
+    @Test
+    public void testBrokenCache() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-test.txt", "this is a text file");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        Files.write(cache, "this is not a cache".getBytes());
+        //unrelated files next to the cache stay where they are
+        Files.write(cache.resolveSibling(cache.getFileName() + ".bak"), "backup".getBytes());
+        Files.write(cache.resolveSibling(cache.getFileName() + "foo"), "foo".getBytes());
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r");
+        Assert.assertEquals("this is a text file", FileUtils.readFileToString(gen.resolve("test.html").toFile()));
+        Assert.assertTrue(Files.exists(cache.resolveSibling(cache.getFileName() + ".bak")));
+        Assert.assertTrue(Files.exists(cache.resolveSibling(cache.getFileName() + "foo")));
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r");
+        Assert.assertEquals(2, Service.service().cache().hits());
+    }
+
+    @Test
+    public void testCompact() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-test.txt", "1");
+        TestUtils.createFile(src, "2-other.txt", "2");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x");
+        final int entries = Service.service().cache().size();
+        Files.delete(src.resolve("2-other.txt"));
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-k");
+        Assert.assertEquals(1, Service.service().cache().hits());
+        //the entry of the deleted file is removed
+        Assert.assertEquals(entries - 1, Service.service().cache().size());
+        Assert.assertFalse(Files.exists(gen.resolve("other.html")));
+        Assert.assertEquals("1", FileUtils.readFileToString(gen.resolve("test.html").toFile()));
+    }
+
+    @Test
+    public void testTemplateChangeDaemon() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-test.txt", "1");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-x");
+        while(Service.service().runCounter() < 1) {
+            Thread.sleep(200);
+        }
+        Assert.assertEquals("1", FileUtils.readFileToString(gen.resolve("test.html").toFile()));
+        TestUtils.replaceFile(src, ".templates/text.ftl", "[${content}]");
+        Files.setLastModifiedTime(src.resolve(".templates/text.ftl"), FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        while(Service.service().runCounter() < 2) {
+            Thread.sleep(200);
+        }
+        Assert.assertEquals("[1]", FileUtils.readFileToString(gen.resolve("test.html").toFile()));
+    }
+
+    @Test
+    public void testUnchangedWrite() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-test.txt", "1");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x");
+        FileTime old = FileTime.fromMillis(10000000000L);
+        Files.setLastModifiedTime(gen.resolve("test.html"), old);
+        //without the cache, the file is generated again, but with the same content
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x");
+        Assert.assertEquals(old, Files.getLastModifiedTime(gen.resolve("test.html")));
+        TestUtils.replaceFile(src, "1-test.txt", "2");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x");
+        Assert.assertNotEquals(old, Files.getLastModifiedTime(gen.resolve("test.html")));
+        Assert.assertEquals("2", FileUtils.readFileToString(gen.resolve("test.html").toFile()));
+    }
+
+    @Test
+    public void testRepairGenerated() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-test.txt", "1");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x");
+        //edited by hand with the same size, the manifest still has the hash of the generated content
+        TestUtils.replaceFile(gen, "test.html", "x");
+        Files.setLastModifiedTime(gen.resolve("test.html"), FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        Files.setLastModifiedTime(src.resolve("1-test.txt"), FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r");
+        Assert.assertEquals("1", FileUtils.readFileToString(gen.resolve("test.html").toFile()));
+    }
+
     @Test
     public void testImage() throws IOException, InterruptedException, ExecutionException {
         TestUtils.copyFile("imgs/label-1.jpg", src, "1-dir1.vis.prm/1-label.jpg");
@@ -77,4 +222,26 @@ public class TestCache {
         Assert.assertEquals("3", FileUtils.readFileToString(gen.resolve("dir/test2.html").toFile()));
         Assert.assertEquals("31", FileUtils.readFileToString(gen.resolve("index.html").toFile()));
     }
+
+    @Test
+    public void testIncremental() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-dir1/1-test1.txt", "1");
+        TestUtils.createFile(src, "2-dir2/1-test2.txt", "2");
+        TestUtils.createFile(src, "2-dir2/2-test3.txt", "3");
+        TestUtils.createFile(src, ".templates/list.ftl", "<#list items as key,item>${item.content}</#list>");
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-x");
+        while(Service.service().runCounter() < 1) {
+            Thread.sleep(200);
+        }
+        Assert.assertEquals("23", FileUtils.readFileToString(gen.resolve("dir2/index.html").toFile()));
+        TestUtils.replaceFile(src, "2-dir2/1-test2.txt", "4");
+        Files.delete(src.resolve("2-dir2/2-test3.txt"));
+        while(Service.service().runCounter() < 2) {
+            Thread.sleep(200);
+        }
+        Assert.assertEquals("4", FileUtils.readFileToString(gen.resolve("dir2/index.html").toFile()));
+        Assert.assertEquals("4", FileUtils.readFileToString(gen.resolve("dir2/test2.html").toFile()));
+        Assert.assertFalse(Files.exists(gen.resolve("dir2/test3.html")));
+        Assert.assertEquals("1", FileUtils.readFileToString(gen.resolve("dir1/test1.html").toFile()));
+    }
 }
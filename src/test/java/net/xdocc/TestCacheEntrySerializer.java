@@ -0,0 +1,147 @@
+package net.xdocc;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class TestCacheEntrySerializer {
+
+    private static Path gen;
+    private static Path src;
+
+    @Before
+    public void setup() throws IOException {
+        src = Files.createTempDirectory("src");
+        gen = Files.createTempDirectory("gen");
+        Files.createDirectories(src.resolve(".templates"));
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        TestUtils.createFile(src, ".templates/list.ftl", "<#list items as item>[${item.content}]</#list>");
+        TestUtils.createFile(src, "1-dir/1-test1.txt", "1");
+        TestUtils.createFile(src, "1-dir/2-test2.txt", "2");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestUtils.deleteDirectories(gen, src);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Site site = new Site(src, gen);
+        XItem item1 = Utils.createDocument(site, XPath.get(site, src.resolve("1-dir/1-test1.txt")), "1", "text");
+        XItem item2 = Utils.createDocument(site, XPath.get(site, src.resolve("1-dir/2-test2.txt")), "2", "text");
+        item2.setSrcSets(Arrays.asList(new SrcSet("a.jpg", "1x")));
+        XItem dir = Utils.createDocument(site, XPath.get(site, src.resolve("1-dir")), null, "list");
+        dir.setItems(Arrays.asList(item1, item2));
+        dir.setDepth(-1);
+
+        Cache.CacheEntry entry = new Cache.CacheEntry().xItem(dir).build(-42).generation("gen")
+                .sourceDirs(new HashMap<>()).generatedFiles(new ArrayList<>());
+        entry.sourceDirs().put(src.resolve("1-dir").toString(), 1234L);
+        entry.generatedFiles().add(gen.resolve("dir/index.html").toString());
+
+        CacheEntrySerializer serializer = new CacheEntrySerializer().site(site);
+        DataOutput2 out = new DataOutput2();
+        serializer.serialize(out, entry);
+        Cache.CacheEntry read = serializer.deserialize(new DataInput2.ByteArray(out.copyBytes()), -1);
+
+        Assert.assertEquals("gen", read.generation());
+        Assert.assertEquals(-42, read.build());
+        Assert.assertEquals(entry.sourceDirs(), read.sourceDirs());
+        Assert.assertEquals(entry.generatedFiles(), read.generatedFiles());
+        Assert.assertEquals(Integer.valueOf(-1), read.xItem().getDepth());
+        Assert.assertEquals(2, read.xItem().getItems().size());
+        //the same item in all lists
+        Assert.assertSame(read.xItem().getItems().get(item1.xPath().fileName()),
+                read.xItem().getItemsUrl().get(item1.getUrl()));
+        Assert.assertEquals("[1][2]", read.xItem().getContent());
+        Assert.assertEquals(item2.getDate(), read.xItem().getItems().get(item2.xPath().fileName()).getDate());
+        Assert.assertEquals(dir.documentGenerator().model().get(XItem.NAVIGATION),
+                read.xItem().documentGenerator().model().get(XItem.NAVIGATION));
+    }
+
+    @Test
+    public void testMapTypes() throws IOException {
+        Site site = new Site(src, gen);
+        XItem item = Utils.createDocument(site, XPath.get(site, src.resolve("1-dir/1-test1.txt")), "1", "text");
+        item.documentGenerator().model().put("sorted", new TreeMap<>(Collections.singletonMap("a", "b")));
+        Cache.CacheEntry entry = new Cache.CacheEntry().xItem(item).generation("gen")
+                .sourceDirs(new HashMap<>()).generatedFiles(new ArrayList<>());
+
+        Cache.CacheEntry read = roundTrip(site, entry);
+        Map<String, Object> model = read.xItem().documentGenerator().model();
+        Assert.assertEquals(HashMap.class, model.get(XPath.PROPERTIES).getClass());
+        Assert.assertEquals(TreeMap.class, model.get("sorted").getClass());
+    }
+
+    @Test
+    public void testUnsupportedValue() throws IOException {
+        Site site = new Site(src, gen);
+        XItem item = Utils.createDocument(site, XPath.get(site, src.resolve("1-dir/1-test1.txt")), "1", "text");
+        item.documentGenerator().model().put("unknown", new StringBuilder("1"));
+        Cache.CacheEntry entry = new Cache.CacheEntry().xItem(item).generation("gen")
+                .sourceDirs(new HashMap<>()).generatedFiles(new ArrayList<>());
+
+        //only the key with the unknown value is dropped, the entry stays valid
+        Cache.CacheEntry read = roundTrip(site, entry);
+        Assert.assertEquals("gen", read.generation());
+        Assert.assertNotNull(read.xItem());
+        Assert.assertFalse(read.xItem().documentGenerator().model().containsKey("unknown"));
+        Assert.assertEquals(item.xPath().name(), read.xItem().documentGenerator().model().get(XPath.NAME));
+    }
+
+    @Test
+    public void testWithoutItems() throws IOException {
+        Site site = new Site(src, gen);
+        XItem item = Utils.createDocument(site, XPath.get(site, src.resolve("1-dir/1-test1.txt")), "1", "text");
+        Cache.CacheEntry entry = new Cache.CacheEntry().xItem(item).generation("gen")
+                .sourceDirs(new HashMap<>()).generatedFiles(new ArrayList<>(Arrays.asList("a", "a")));
+
+        CacheEntrySerializer serializer = new CacheEntrySerializer().site(site);
+        DataOutput2 out = new DataOutput2();
+        serializer.serialize(out, entry);
+        DataInput2.ByteArray in = new DataInput2.ByteArray(out.copyBytes());
+        Cache.CacheEntry read = serializer.withoutItems(() -> {
+            try {
+                return serializer.deserialize(in, -1);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Assert.assertEquals("gen", read.generation());
+        Assert.assertEquals(Arrays.asList("a", "a"), read.generatedFiles());
+        Assert.assertNull(read.xItem());
+        //the item was skipped completely
+        Assert.assertEquals(out.pos, in.pos);
+    }
+
+    private static Cache.CacheEntry roundTrip(Site site, Cache.CacheEntry entry) throws IOException {
+        CacheEntrySerializer serializer = new CacheEntrySerializer().site(site);
+        DataOutput2 out = new DataOutput2();
+        serializer.serialize(out, entry);
+        return serializer.deserialize(new DataInput2.ByteArray(out.copyBytes()), -1);
+    }
+
+    @Test
+    public void testOldVersion() throws IOException {
+        Site site = new Site(src, gen);
+        CacheEntrySerializer serializer = new CacheEntrySerializer().site(site);
+        //java serialized entries start with 0xACED
+        Cache.CacheEntry read = serializer.deserialize(new DataInput2.ByteArray(new byte[]{(byte) 0xAC, (byte) 0xED}), -1);
+        Assert.assertNull(read.generation());
+        Assert.assertNull(read.xItem());
+    }
+}
@@ -101,4 +101,37 @@ public class TestDelete {
 
 
     }
+
+    @Test
+    public void testDeleteManifest() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, ".templates/list.ftl", "<#list items as item>[${item.content}]</#list>");
+        TestUtils.createFile(src, ".templates/wikitext.ftl", "${content}");
+        TestUtils.createFile(src, "1-dir1/1-read.textile", "hallo");
+        TestUtils.createFile(src, "2-dir2/1-del.textile", "hallo");
+
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x");
+        Assert.assertTrue(Files.exists(gen.resolve("dir2/del.html")));
+
+        //the second run finds the unused files in the manifest
+        TestUtils.deleteDirectories(src.resolve("2-dir2"));
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r");
+        Assert.assertFalse(Files.exists(gen.resolve("dir2")));
+        Assert.assertTrue(Files.exists(gen.resolve("dir1/read.html")));
+    }
+
+    @Test
+    public void testDeleteDryRun() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(gen, "dir2/del2.me", "h1. A headline");
+        TestUtils.createFile(src, "1-dir1/1-read.textile", "hallo");
+        TestUtils.createFile(src, ".templates/list.ftl", "<#list items as item>[${item.content}]</#list>");
+        TestUtils.createFile(src, ".templates/wikitext.ftl", "${content}");
+
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x", "-d");
+        Assert.assertTrue(Files.exists(gen.resolve("dir2/del2.me")));
+        Assert.assertTrue(Files.exists(gen.resolve("dir1/read.html")));
+
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x", "-j", "2");
+        Assert.assertFalse(Files.exists(gen.resolve("dir2")));
+        Assert.assertTrue(Files.exists(gen.resolve("dir1/read.html")));
+    }
 }
@@ -65,6 +65,48 @@ public class TestHandler {
         Assert.assertEquals("[<a href=\"./hallo.html\">hallo</a>][<a href=\"./test.html\">test</a>]", FileUtils.readFileToString(gen.resolve("dir1/index.html").toFile()));
     }
 
+    @Test(timeout = 60000)
+    public void testLinkCycle() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-dir1/1-test.txt", "1");
+        TestUtils.createFile(src, "1-dir1/2-link.link", "url=../dir2");
+        TestUtils.createFile(src, "2-dir2/1-test.txt", "2");
+        TestUtils.createFile(src, "2-dir2/2-link.link", "url=../dir1");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        TestUtils.createFile(src, ".templates/list.ftl", "<#list items as key,item>[${item.content}]</#list>");
+        TestUtils.createFile(src, ".templates/link.ftl", "<#list items as key,item>(${item.content})</#list>");
+
+        //the link of dir2 is ignored, otherwise each directory waits for the other
+        Path gen1 = Files.createTempDirectory("gen");
+        Path cache1 = Files.createTempDirectory("cache").resolve("cache");
+        try {
+            Service.main("-s", src.toString(), "-g", gen1.toString(), "-c", cache1.toString(), "-r", "-x", "-t", "1");
+            Assert.assertEquals("[1][([2][])]", FileUtils.readFileToString(gen1.resolve("dir1/index.html").toFile()));
+            Assert.assertEquals("[2][]", FileUtils.readFileToString(gen1.resolve("dir2/index.html").toFile()));
+            //the scheduling differs between the runs, the cache is cleared so that both links are compiled again
+            for (int run = 0; run < 10; run++) {
+                Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString(), "-r", "-x", "-t", "8");
+                Assert.assertEquals("[1][([2][])]", FileUtils.readFileToString(gen.resolve("dir1/index.html").toFile()));
+                Assert.assertEquals("[2][]", FileUtils.readFileToString(gen.resolve("dir2/index.html").toFile()));
+            }
+        } finally {
+            TestUtils.deleteDirectories(gen1, cache1.getParent());
+        }
+    }
+
+    @Test
+    public void testLinkDepth() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-dir1/1-sub/1-test.txt", "a");
+        TestUtils.createFile(src, "2-link.link", "url=dir1/sub/*");
+        TestUtils.createFile(src, ".templates/text.ftl", "${depth}:${content}");
+        TestUtils.createFile(src, ".templates/list.ftl", "<#list items as key,item>[${item.content}]</#list>");
+        TestUtils.createFile(src, ".templates/link.ftl", "<#list items as key,item>(${item.content})</#list>");
+
+        //the file is compiled once for its directory and for the link
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x", "-t", "8");
+        Assert.assertEquals("(2:a)", FileUtils.readFileToString(gen.resolve("link.html").toFile()));
+        Assert.assertEquals("[2:a]", FileUtils.readFileToString(gen.resolve("dir1/sub/index.html").toFile()));
+    }
+
     @Test
     public void testLink2() throws IOException, InterruptedException, ExecutionException {
         TestUtils.createFile(src, "1-dir1/1-subdir/1-test|prm.txt", "<a href=\"${path}/hallo.html\">hallo</a>");
@@ -14,6 +14,8 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 public class TestNavigation {
@@ -115,4 +117,23 @@ public class TestNavigation {
         Assert.assertEquals("[dir2/subdir3/subsubdir]", FileUtils.readFileToString(gen.resolve("dir2/subdir3/subsubdir/index.html").toFile()));
     }
 
+    @Test
+    public void testSharedNavigation() throws IOException {
+        TestUtils.createFile(src, "1-dir1|nav/1-test1.txt", "1");
+        TestUtils.createFile(src, "1-dir1|nav/2-test2.txt", "2");
+        TestUtils.createFile(src, "1-dir1|nav/3-subdir1|nav/1-test.txt", "3");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        Site site = new Site(src, gen);
+        XItem item1 = Utils.createDocument(site, XPath.get(site, src.resolve("1-dir1|nav/1-test1.txt")), "1", "text");
+        XItem item2 = Utils.createDocument(site, XPath.get(site, src.resolve("1-dir1|nav/2-test2.txt")), "2", "text");
+        XItem item3 = Utils.createDocument(site, XPath.get(site, src.resolve("1-dir1|nav/3-subdir1|nav/1-test.txt")), "3", "text");
+        Map<String, Object> model1 = item1.documentGenerator().model();
+        Map<String, Object> model2 = item2.documentGenerator().model();
+        Assert.assertSame(model1.get(XItem.LOCALNAV), model2.get(XItem.LOCALNAV));
+        Assert.assertSame(model1.get(XItem.BREADCRUMB), model2.get(XItem.BREADCRUMB));
+        //the breadcrumb of the subdirectory continues the one of its parent
+        List<?> breadcrumb = (List<?>) item3.documentGenerator().model().get(XItem.BREADCRUMB);
+        Assert.assertEquals(2, breadcrumb.size());
+        Assert.assertSame(((List<?>) model1.get(XItem.BREADCRUMB)).get(0), breadcrumb.get(0));
+    }
 }
@@ -9,7 +9,11 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TestService {
 
@@ -162,4 +166,68 @@ public class TestService {
         Assert.assertTrue(Files.size(gen.resolve("index.html"))==71);
         Assert.assertFalse(Files.exists(gen.resolve("dir/index.html")));
     }
+
+    @Test
+    public void testFilesCount() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-dir/1-a.txt", "abc");
+        TestUtils.createFile(src, "1-dir/2-b.txt", "de");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}");
+        TestUtils.createFile(src, ".templates/list.ftl", "${filescount}|<#list items as item>[${item.fileSize}]</#list>");
+
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x");
+        Assert.assertEquals("3|[3][2]", FileUtils.readFileToString(gen.resolve("dir/index.html").toFile()));
+    }
+
+    @Test
+    public void testFlags() throws IOException, InterruptedException, ExecutionException {
+        TestUtils.createFile(src, "1-dir|nav/1-a.txt", "abc");
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}<#if isdirectory>|dir</#if>");
+        TestUtils.createFile(src, ".templates/list.ftl", "<#if isdirectory && isnavigation>nav</#if><#list items as item>[${item.content}]</#list>");
+
+        Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString() , "-r", "-x");
+        Assert.assertEquals("nav[abc]", FileUtils.readFileToString(gen.resolve("dir/index.html").toFile()));
+        Assert.assertEquals("abc", FileUtils.readFileToString(gen.resolve("dir/a.html").toFile()));
+    }
+
+    @Test
+    public void testParallelCompile() throws IOException, InterruptedException, ExecutionException {
+        for (int i = 1; i <= 4; i++) {
+            for (int j = 1; j <= 3; j++) {
+                TestUtils.createFile(src, i + "-dir" + i + "/" + j + "-sub" + j + "/1-a.txt", "a" + i + j);
+                TestUtils.createFile(src, i + "-dir" + i + "/" + j + "-sub" + j + "/2-b.txt", "b" + i + j);
+            }
+            TestUtils.createFile(src, i + "-dir" + i + "/4-c.txt", "c" + i);
+        }
+        TestUtils.createFile(src, ".templates/text.ftl", "${content}|${depth}");
+        TestUtils.createFile(src, ".templates/list.ftl", "${filescount}|<#list items as item>[${item.content}]</#list>");
+
+        Path gen1 = Files.createTempDirectory("gen");
+        Path cache1 = Files.createTempDirectory("cache").resolve("cache");
+        try {
+            Service.main("-s", src.toString(), "-g", gen1.toString(), "-c", cache1.toString(), "-r", "-x", "-t", "1");
+            Map<String, String> single = generated(gen1);
+            //4 directories with 3 sub directories with 2 files, plus a file and the index of each directory
+            Assert.assertEquals(1 + 4 * (1 + 1 + 3 * 3), single.size());
+            //the scheduling differs between the runs, the cache is cleared so that everything is compiled again
+            for (int run = 0; run < 10; run++) {
+                Service.main("-s", src.toString(), "-g", gen.toString(), "-c", cache.toString(), "-r", "-x", "-t", "8");
+                Assert.assertEquals(single, generated(gen));
+            }
+        } finally {
+            TestUtils.deleteDirectories(gen1, cache1.getParent());
+        }
+    }
+
+    /**
+     * @return The relative path and the content of all generated files
+     */
+    private static Map<String, String> generated(Path root) throws IOException {
+        final Map<String, String> files = new TreeMap<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path p : walk.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                files.put(root.relativize(p).toString(), FileUtils.readFileToString(p.toFile()));
+            }
+        }
+        return files;
+    }
 }
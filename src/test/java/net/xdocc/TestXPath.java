@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 
 public class TestXPath {
 
@@ -161,4 +162,40 @@ public class TestXPath {
         Assert.assertTrue(x.containsExtension("md"));
         Assert.assertTrue(x.isNavigation());
     }
+
+    @Test
+    public void testTargetURL() throws IOException {
+        Site site = new Site(src, gen);
+        Files.createDirectories(src.resolve("1-dir/2-sub"));
+        TestUtils.createFile(src, "1-dir/2-sub/3-test.txt", "test");
+        XPath x = XPath.get(site, src.resolve("1-dir/2-sub/3-test.txt"));
+        Assert.assertEquals("dir/sub/test", x.getTargetURL());
+        Assert.assertEquals("dir/sub", x.getTargetURLPath());
+        Assert.assertEquals("test", x.getTargetURLName());
+        Assert.assertEquals("dir/sub/3-test.txt", x.getTargetURLFilename());
+        Assert.assertEquals(2, x.getTargetDepth());
+        XPath dir = XPath.get(site, src.resolve("1-dir"));
+        Assert.assertEquals("dir", dir.getTargetURL());
+        Assert.assertEquals(1, dir.getTargetDepth());
+        Assert.assertEquals("", XPath.get(site, src).getTargetURL());
+    }
+
+    @Test
+    public void testRecursiveProperty() throws IOException {
+        Site site = new Site(src, gen);
+        Files.createDirectories(src.resolve("4-parent/5-child"));
+        TestUtils.createFile(src, "4-parent/.xdocc", "hide: true");
+        TestUtils.createFile(src, "4-parent/5-child/6-test.txt", "test");
+        XPath x = XPath.get(site, src.resolve("4-parent/5-child/6-test.txt"));
+        Assert.assertTrue(x.isHidden());
+        Assert.assertEquals("true", x.getRecursiveProperty("hide", "hid"));
+        Assert.assertNull(x.getRecursiveProperty("missing"));
+
+        Files.write(src.resolve("4-parent/.xdocc"), "visible: true".getBytes());
+        Assert.assertTrue(x.isHidden());
+        XPath.invalidate(site, Collections.singletonList(src.resolve("4-parent/.xdocc")));
+        Assert.assertFalse(x.isHidden());
+        Assert.assertNull(x.getRecursiveProperty("hide", "hid"));
+        Assert.assertTrue(XPath.get(site, src.resolve("4-parent/5-child")).hasRecursiveProperty("visible"));
+    }
 }